@@ -0,0 +1,81 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.benchmark;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import java.util.Collection;
+import java.util.Map;
+
+
+/**
+ * Runs JMH with the given command line and prints per-event and per-record figures
+ * derived from the {@code events}/{@code records} counters and the {@code -prof gc} profiler.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Collection<RunResult> results = new Runner(new CommandLineOptions(args)).run();
+        System.out.println();
+        System.out.printf("%-60s %14s %10s %12s%n", "Benchmark", "ops/s", "ns/event", "B/record");
+        for (RunResult run : results) {
+            Result<?> primary = run.getPrimaryResult();
+            Map<String, Result> secondary = run.getSecondaryResults();
+            String benchmark = run.getParams().getBenchmark();
+            benchmark = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+            System.out.printf("%-60s %14.3f %10s %12s%n",
+                    benchmark + describeParams(run),
+                    primary.getScore(),
+                    nsPerEvent(secondary),
+                    bytesPerRecord(primary, secondary));
+        }
+    }
+
+    private static String describeParams(RunResult run) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : run.getParams().getParamsKeys()) {
+            sb.append(' ').append(run.getParams().getParam(key));
+        }
+        return sb.toString();
+    }
+
+    private static String nsPerEvent(Map<String, Result> secondary) {
+        Result events = secondary.get("events");
+        if (events == null || events.getScore() == 0) {
+            return "-";
+        }
+        return String.format("%.2f", 1e9 / events.getScore());
+    }
+
+    private static String bytesPerRecord(Result<?> primary, Map<String, Result> secondary) {
+        Result records = secondary.get("records");
+        Result allocated = secondary.get("gc.alloc.rate.norm");
+        if (records == null || allocated == null || records.getScore() == 0) {
+            return "-";
+        }
+        double recordsPerOp = records.getScore() / primary.getScore();
+        return String.format("%.1f", allocated.getScore() / recordsPerOp);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.benchmark;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Shapes of generated benchmark documents.
+ * <p>All documents are {@code library/book} feeds so every handler graph can run against every shape.</p>
+ */
+public enum DocumentShape {
+    /**
+     * Many small records with a few short fields each.
+     */
+    SMALL_RECORDS(20_000, 0, 0),
+    /**
+     * Few records carrying a huge {@code description} text node.
+     */
+    HUGE_TEXT(16, 256 * 1024, 0),
+    /**
+     * Records where most of the bytes are in a {@code history} subtree nobody subscribes to.
+     */
+    MOSTLY_SKIPPED(2_000, 0, 100);
+
+    private final int records;
+    private final int descriptionLength;
+    private final int historyEntries;
+
+    DocumentShape(int records, int descriptionLength, int historyEntries) {
+        this.records = records;
+        this.descriptionLength = descriptionLength;
+        this.historyEntries = historyEntries;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Generate the document.
+     *
+     * @return UTF-8 encoded xml
+     */
+    public byte[] generate() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<library>\n");
+        for (int i = 0; i < records; i++) {
+            xml.append("  <book id=\"").append(i)
+                    .append("\" lang=\"").append(i % 3 == 0 ? "en" : "pl")
+                    .append("\" year=\"").append(1900 + i % 120).append("\">\n")
+                    .append("    <title>Title ").append(i).append("</title>\n")
+                    .append("    <author>Author ").append(i % 1000).append("</author>\n")
+                    .append("    <price>").append(i % 100).append('.').append(i % 10).append("5</price>\n")
+                    .append("    <meta><publisher><address><city>City ").append(i % 50)
+                    .append("</city></address></publisher></meta>\n");
+            xml.append("    <description>");
+            if (descriptionLength == 0) {
+                xml.append("Short description of book ").append(i);
+            } else {
+                for (int j = 0; j < descriptionLength; j++) {
+                    xml.append((char) ('a' + (i + j) % 26));
+                }
+            }
+            xml.append("</description>\n");
+            if (historyEntries > 0) {
+                xml.append("    <history>\n");
+                for (int j = 0; j < historyEntries; j++) {
+                    xml.append("      <entry rev=\"").append(j).append("\"><date>2020-01-")
+                            .append(10 + j % 20).append("</date><change><field>price</field><old>")
+                            .append(j).append("</old><new>").append(j + 1).append("</new></change></entry>\n");
+                }
+                xml.append("    </history>\n");
+            }
+            xml.append("  </book>\n");
+        }
+        xml.append("</library>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Count events the engine is fed with: element starts, element ends and text nodes.
+     *
+     * @param document xml produced by {@link #generate()}
+     * @param factory factory to create reader
+     * @return number of events
+     */
+    public static long countEvents(byte[] document, XMLInputFactory factory) {
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(document));
+            long events = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                    case XMLStreamConstants.END_ELEMENT:
+                    case XMLStreamConstants.CHARACTERS:
+                        events++;
+                        break;
+                    default:
+                }
+            }
+            reader.close();
+            return events;
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
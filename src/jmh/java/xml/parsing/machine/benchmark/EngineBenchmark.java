@@ -0,0 +1,120 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.bytes.MappedParser;
+import xml.parsing.machine.stax.StaxParser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures {@link xml.parsing.machine.api.AbstractXmlParser#read} with {@link StaxParser}
+ * for every combination of handler graph and document shape.
+ * <p>{@link #read} builds the graph for every document, {@link #readCompiled} shares one compiled plan.
+ * {@link #readMapped} runs the same plan with {@link MappedParser} instead of StAX, {@link #readTabulated}
+ * runs it on a transition table (see {@link Plan#tabulate()}).</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+    @Param
+    public DocumentShape shape;
+
+    @Param
+    public HandlerGraph graph;
+
+    private XMLInputFactory factory;
+    private byte[] document;
+    private long events;
+    private Plan plan;
+    private Plan tabulated;
+
+    /**
+     * Events and records processed. Reported by JMH as rates next to the primary score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long events;
+        public long records;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole bh) {
+        factory = XMLInputFactory.newInstance();
+        document = shape.generate();
+        events = DocumentShape.countEvents(document, factory);
+        plan = graph.build(bh).compile();
+        tabulated = plan.tabulate();
+    }
+
+    @Benchmark
+    public void read(Counters counters, Blackhole bh) throws XMLStreamException {
+        StaxParser parser = new StaxParser(factory.createXMLStreamReader(new ByteArrayInputStream(document)));
+        parser.read(graph.build(bh));
+        counters.events += events;
+        counters.records += shape.getRecords();
+    }
+
+    @Benchmark
+    public void readCompiled(Counters counters) throws XMLStreamException {
+        StaxParser parser = new StaxParser(factory.createXMLStreamReader(new ByteArrayInputStream(document)));
+        parser.read(plan);
+        counters.events += events;
+        counters.records += shape.getRecords();
+    }
+
+    @Benchmark
+    public void readMapped(Counters counters) {
+        new MappedParser(ByteBuffer.wrap(document)).read(plan);
+        counters.events += events;
+        counters.records += shape.getRecords();
+    }
+
+    @Benchmark
+    public void readTabulated(Counters counters) {
+        new MappedParser(ByteBuffer.wrap(document)).read(tabulated);
+        counters.events += events;
+        counters.records += shape.getRecords();
+    }
+}
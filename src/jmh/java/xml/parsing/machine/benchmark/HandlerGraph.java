@@ -0,0 +1,128 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.benchmark;
+
+import org.openjdk.jmh.infra.Blackhole;
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.RootHandler;
+
+
+/**
+ * Handler graphs typical for real feeds. Every graph consumes its results into a {@link Blackhole}.
+ */
+public enum HandlerGraph {
+    /**
+     * Plain record with a few text fields.
+     */
+    FLAT {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return RootHandler.instance("library", library -> library.then("book")
+                    .or("title", x -> x.text(bh::consume))
+                    .or("author", x -> x.text(bh::consume))
+                    .or("price", x -> x.text(bh::consume))
+                    .or("description", x -> x.text(bh::consume)));
+        }
+    },
+    /**
+     * Long chain of nested {@code then()} calls reaching a single deep value.
+     */
+    DEEP_CHAIN {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return RootHandler.instance("library", library -> library.then("book")
+                    .then("meta").then("publisher").then("address").then("city").text(bh::consume));
+        }
+    },
+    /**
+     * Every field is propagated to the record and consumed on close.
+     */
+    PROPAGATE {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return RootHandler.instance("library", library -> library.then("book")
+                    .or("title", Handler::propagate)
+                    .or("author", Handler::propagate)
+                    .or("price", Handler::propagate)
+                    .or("description", Handler::propagate)
+                    .or("meta", meta -> meta.propagate().then("publisher").propagate()
+                            .then("address").propagate()
+                            .then("city").propagate())
+                    .close(book -> {
+                        bh.consume(book.getProperty("title"));
+                        bh.consume(book.getProperty("author"));
+                        bh.consume(book.getProperty("price"));
+                        bh.consume(book.getProperty("description"));
+                        bh.consume(book.getProperty("meta/publisher/address/city"));
+                    }));
+        }
+    },
+    /**
+     * The same record as {@link #PROPAGATE} filled by a binder generated from {@link BookRecord}.
+     */
+    BOUND {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return new BookRecordBinder().handler(book -> {
+                bh.consume(book.title);
+                bh.consume(book.author);
+                bh.consume(book.price);
+                bh.consume(book.description);
+                bh.consume(book.city);
+            });
+        }
+    },
+    /**
+     * Records filtered by an attribute.
+     */
+    ATTRIBUTES_ASSUME {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return RootHandler.instance("library", library -> library.then("book")
+                    .withAttributes()
+                    .assume(book -> "en".equals(book.getProperty("@lang")))
+                    .or("title", x -> x.text(bh::consume))
+                    .or("price", x -> x.text(bh::consume))
+                    .close(book -> bh.consume(book.getProperty("@id"))));
+        }
+    },
+
+    /**
+     * The same as {@link #ATTRIBUTES_ASSUME} reading only the used attributes.
+     */
+    ATTRIBUTES_PROJECTED {
+        @Override
+        public RootHandler build(Blackhole bh) {
+            return RootHandler.instance("library", library -> library.then("book")
+                    .withAttributes("id", "lang")
+                    .assume(book -> "en".equals(book.getProperty("@lang")))
+                    .or("title", x -> x.text(bh::consume))
+                    .or("price", x -> x.text(bh::consume))
+                    .close(book -> bh.consume(book.getProperty("@id"))));
+        }
+    };
+
+    /**
+     * Build a new handler graph.
+     *
+     * @param bh sink for the values
+     * @return root handler to pass to the parser
+     */
+    public abstract RootHandler build(Blackhole bh);
+}
@@ -0,0 +1,490 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+
+import javax.xml.stream.XMLStreamConstants;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+
+/**
+ * Runs handler graphs on XML events.
+ * <p>Keeps the stack of active handlers and the state of a run; a backend positions itself on an event and
+ * passes it to {@link #dispatch(int)}. Backends reading their input on demand extend {@link AbstractXmlParser},
+ * which adds the blocking {@code read()} methods; backends the input is pushed to extend this class directly.</p>
+ */
+public abstract class AbstractXmlEngine {
+    /**
+     * Active handlers from the root, {@code top} is the number of them. Grows with the depth of the document
+     * and is reused by every parse.
+     */
+    private XmlNodeHandler[] handlers = new XmlNodeHandler[16];
+    private int top;
+    private final ParseControl control = new ParseControl();
+    private SymbolTable symbols;
+    private Cursor cursor;
+    /**
+     * Cursor of the last run, reused when the same plan runs again.
+     */
+    private Cursor spare;
+    private String checkpointRecord;
+    private int checkpointInterval;
+    private String lastNamespace;
+    private int lastNamespaceId;
+    private final Supplier<CharSequence> chars = this::getElementChars;
+    private final CharView coalescedView = new CharView();
+    private final Supplier<CharSequence> coalescedChars = this::getCoalescedChars;
+    private boolean coalescing;
+    private boolean pendingText;
+    private char[] coalesced = new char[256];
+    private int coalescedLength;
+
+    /**
+     * Turns on merging of adjacent text events.
+     * <p>A reader may split a text node into several events: at buffer boundaries, around entity references
+     * or CDATA sections. In coalescing mode the parser collects the fragments in a buffer reused through
+     * the whole parse and passes the handler a single value before the next element starts or ends.
+     * Comments and processing instructions between fragments are ignored, so {@code a<!-- -->b} gives
+     * {@code ab}. This is cheaper than {@code XMLInputFactory.IS_COALESCING} and works for every backend.</p>
+     *
+     * @param coalescing {@code true} to merge text fragments
+     * @return {@code this}
+     */
+    public AbstractXmlEngine withCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * Get the control of the parser. It is reset at the start of every parse.
+     *
+     * @return control that stops the parse
+     */
+    public ParseControl control() {
+        return control;
+    }
+
+    /**
+     * Stop the running parse. Can be called from any thread.
+     * <p>The parser stops after the current event and releases its input (see {@link #release()}).
+     * Called before the parse starts, it stops the parse before the first event.</p>
+     */
+    public void cancel() {
+        control.stop();
+    }
+
+    /**
+     * Ask for {@link #checkpoint(RunState)} after every {@code interval} completed records. Applies to the
+     * following runs of compiled graphs.
+     *
+     * @param record name of record element, {@code null} to stop taking checkpoints
+     * @param interval number of records between checkpoints
+     */
+    protected final void checkpointEvery(String record, int interval) {
+        if (record != null && interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        checkpointRecord = record;
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Called at a checkpoint, right after the end of a record, see {@link #checkpointEvery(String, int)}.
+     * <p>Backends able to continue from the current point of the input keep the state along with their own
+     * position; batches of {@link Handler#closeBatch(int, Consumer)} are delivered before the call, so
+     * no record is lost if the run is continued from the checkpoint.</p>
+     *
+     * @param state state of handlers
+     */
+    protected void checkpoint(RunState state) {
+    }
+
+    /**
+     * Pass batches whose time limit has passed to their consumers, see
+     * {@link Handler#closeBatch(int, java.time.Duration, Consumer)}. Backends call it while they wait for input,
+     * since no element completes then.
+     */
+    protected final void flushExpiredBatches() {
+        if (cursor != null && !control.isStopped()) {
+            cursor.flushExpired();
+        }
+    }
+
+    /**
+     * Bring handlers into a state taken at a checkpoint. Must be called right after {@link #start(Plan)}
+     * or {@link #start(Plan, String, Consumer)}, when the backend is positioned where the state was taken.
+     *
+     * @param state state taken from a run of the same plan
+     */
+    protected final void restore(RunState state) {
+        if (state == null) {
+            throw new IllegalArgumentException("State must not be null");
+        }
+        if (cursor == null || top != 1) {
+            throw new IllegalStateException("Only a compiled graph which has just started can be restored");
+        }
+        for (Handler frame : cursor.restore(state)) {
+            push(frame);
+        }
+    }
+
+    /**
+     * Prepare to run a compiled graph. Backends that get events pushed to them call {@link #dispatch(int)} then.
+     *
+     * @param plan compiled graph
+     */
+    protected final void start(Plan plan) {
+        if (plan == null) {
+            throw new IllegalArgumentException("Plan must not be null");
+        }
+        Cursor cursor = cursor(plan);
+        begin(cursor.root(), plan.symbols());
+        this.cursor = cursor;
+    }
+
+    /**
+     * Prepare to run a compiled graph reporting completed records, see {@link AbstractXmlParser#read(Plan, String, Consumer)}.
+     *
+     * @param plan compiled graph
+     * @param record name of record element
+     * @param listener receives run-time copy of the record handler
+     */
+    protected final void start(Plan plan, String record, Consumer<? super Handler> listener) {
+        if (plan == null) {
+            throw new IllegalArgumentException("Plan must not be null");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        Cursor cursor = cursor(plan);
+        cursor.listen(record, listener);
+        begin(cursor.root(), plan.symbols());
+        this.cursor = cursor;
+    }
+
+    /**
+     * Prepare to run a handler graph, see {@link AbstractXmlParser#read(XmlNodeHandler)}.
+     *
+     * @param rootHandler root of the handler graph
+     */
+    protected final void start(XmlNodeHandler rootHandler) {
+        if (rootHandler == null) {
+            throw new IllegalArgumentException("Handler must not be null");
+        }
+        if (rootHandler instanceof RootHandler && ((RootHandler) rootHandler).cursor == null) {
+            start(((RootHandler) rootHandler).compile());
+            return;
+        }
+        begin(rootHandler, null);
+    }
+
+    private Cursor cursor(Plan plan) {
+        if (spare == null || !spare.runs(plan)) {
+            spare = plan.newCursor(control);
+        } else {
+            spare.reset();
+        }
+        if (checkpointRecord != null) {
+            spare.checkpointEvery(checkpointRecord, checkpointInterval);
+        }
+        return spare;
+    }
+
+    private void begin(XmlNodeHandler rootHandler, SymbolTable symbols) {
+        if (symbols != null && symbols.hasNamespaces() && !resolvesNamespaces()) {
+            throw new IllegalArgumentException(
+                    "Graph has handlers bound to namespaces, but " + getClass().getSimpleName()
+                            + " does not resolve namespaces");
+        }
+        clear();
+        push(rootHandler);
+        this.symbols = symbols;
+        this.cursor = null;
+        lastNamespace = null;
+        control.reset();
+        pendingText = false;
+        coalescedLength = 0;
+    }
+
+    /**
+     * Pass an event to the handlers. The parser must be positioned on the event.
+     *
+     * @param eventType see {@link XMLStreamConstants}
+     * @return {@code true} when the document is complete or parsing is stopped, see {@link ParseControl}
+     */
+    protected final boolean dispatch(int eventType) {
+        if (top == 0) {
+            throw new IllegalStateException("Parsing is not started");
+        }
+        if (control.isStopped()) {
+            // cancelled before the event
+            finish();
+            release();
+            return true;
+        }
+        if (handle(eventType)) {
+            finish();
+            return true;
+        }
+        if (cursor != null && cursor.checkpointDue()) {
+            cursor.flush();
+            checkpoint(cursor.save(Arrays.asList(handlers).subList(0, top)));
+        }
+        if (control.isStopped()) {
+            finish();
+            release();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean handle(int eventType) {
+        switch (eventType) {
+            case XMLStreamConstants.START_ELEMENT: {
+                flushText();
+                XmlNodeHandler activeHandler = handlers[top - 1];
+                if (activeHandler.isActive() || isScoped(activeHandler)) {
+                    XmlNodeHandler nextHandler = symbols == null
+                            ? activeHandler.onStartElement(getElementName())
+                            : ((RootHandler) activeHandler).onStartElement(getElementSymbol(symbols), namespaceId());
+                    if (nextHandler == null || nextHandler == activeHandler) {
+                        if (!activeHandler.isActive() || !activeHandler.canSkip() || !skipElement()) {
+                            activeHandler.down();
+                        }
+                    } else {
+                        push(nextHandler);
+                        if (nextHandler.needAttributes()) {
+                            nextHandler.onAttributes(getAttributeView());
+                        }
+                    }
+                } else {
+                    activeHandler.down();
+                }
+                break;
+            }
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE: {
+                if (coalescing) {
+                    appendText();
+                } else {
+                    handlers[top - 1].onCharacters(chars);
+                }
+                break;
+            }
+            case XMLStreamConstants.END_ELEMENT: {
+                flushText();
+                XmlNodeHandler activeHandler = handlers[top - 1];
+                if (activeHandler.up() == 0) {
+                    handlers[--top] = null;
+                    if (top == 0) {
+                        return true;
+                    }
+                    activeHandler.onEndElement(handlers[top - 1]);
+                }
+                break;
+            }
+            case XMLStreamConstants.END_DOCUMENT: {
+                flushText();
+                clear();
+                return true;
+            }
+            default:
+                // START_DOCUMENT, comments, etc.
+        }
+        return false;
+    }
+
+    /**
+     * Identifier of namespace of the current element. Subsequent elements usually share the URI instance,
+     * so it is looked up only when the instance changes.
+     *
+     * @return see {@link SymbolTable#namespace(String)}
+     */
+    private int namespaceId() {
+        if (!symbols.hasNamespaces()) {
+            return Handler.ANY_NAMESPACE;
+        }
+        String uri = getElementNamespace();
+        if (uri == null) {
+            uri = "";
+        }
+        if (uri != lastNamespace) {
+            lastNamespace = uri;
+            lastNamespaceId = symbols.namespace(uri);
+        }
+        return lastNamespaceId;
+    }
+
+    private void push(XmlNodeHandler handler) {
+        if (top == handlers.length) {
+            handlers = Arrays.copyOf(handlers, top * 2);
+        }
+        handlers[top++] = handler;
+    }
+
+    private void clear() {
+        Arrays.fill(handlers, 0, top, null);
+        top = 0;
+    }
+
+    private static boolean isScoped(XmlNodeHandler handler) {
+        return handler instanceof RootHandler && ((RootHandler) handler).scoped();
+    }
+
+    /**
+     * Complete the run: a stop which has ended it does not apply to the next run.
+     */
+    void finish() {
+        control.spend();
+        if (cursor != null) {
+            Cursor cursor = this.cursor;
+            this.cursor = null;
+            cursor.finish();
+        }
+    }
+
+    private void appendText() {
+        CharSequence text = getElementChars();
+        int length = text.length();
+        if (coalesced.length - coalescedLength < length) {
+            coalesced = Arrays.copyOf(coalesced, Math.max(coalesced.length * 2, coalescedLength + length));
+        }
+        if (text instanceof CharView) {
+            ((CharView) text).copyTo(coalesced, coalescedLength);
+        } else if (text instanceof String) {
+            ((String) text).getChars(0, length, coalesced, coalescedLength);
+        } else {
+            for (int i = 0; i < length; i++) {
+                coalesced[coalescedLength + i] = text.charAt(i);
+            }
+        }
+        coalescedLength += length;
+        pendingText = true;
+    }
+
+    private void flushText() {
+        if (pendingText) {
+            pendingText = false;
+            handlers[top - 1].onCharacters(coalescedChars);
+            coalescedLength = 0;
+        }
+    }
+
+    private CharSequence getCoalescedChars() {
+        return coalescedView.set(coalesced, 0, coalescedLength);
+    }
+
+    /**
+     * Get element name
+     * @return name
+     */
+    protected abstract String getElementName();
+
+    /**
+     * Get symbol of element name.
+     * <p>Used instead of {@link #getElementName()} when a compiled graph runs. Backends able to compare the name
+     * in their input with the symbols (see {@link SymbolTable#firstCandidate(int, int)}) should override the
+     * method, so names the graph does not handle never become strings.</p>
+     *
+     * @param symbols names the graph handles
+     * @return symbol or {@link SymbolTable#UNKNOWN}
+     */
+    protected int getElementSymbol(SymbolTable symbols) {
+        return symbols.lookup(getElementName());
+    }
+
+    /**
+     * Tell whether the backend reports namespaces of elements, see {@link #getElementNamespace()}.
+     * <p>A compiled graph with handlers bound to namespaces, see {@link RootHandler#then(javax.xml.namespace.QName)},
+     * is refused by backends which do not, when it is started.</p>
+     *
+     * @return {@code false} by default
+     */
+    protected boolean resolvesNamespaces() {
+        return false;
+    }
+
+    /**
+     * Get namespace URI of element.
+     * <p>Called only when a compiled graph has handlers bound to namespaces and the backend
+     * {@link #resolvesNamespaces() resolves} them. Backends should return the same instance for the
+     * same namespace where they can: it is compared by reference first.</p>
+     *
+     * @return namespace URI, {@code null} or empty for elements without namespace; the default implementation
+     * returns {@code null}
+     */
+    protected String getElementNamespace() {
+        return null;
+    }
+
+    /**
+     * Get element text
+     * @return text of element
+     */
+    protected abstract String getElementText();
+
+    /**
+     * Get element text without making a {@code String} of it.
+     * <p>The result may be a view of an internal buffer of the parser (see {@link CharView}) that is valid
+     * until the next event. Backends should override the method if they can avoid copying the text.</p>
+     *
+     * @return text of element
+     */
+    protected CharSequence getElementChars() {
+        return getElementText();
+    }
+
+    protected abstract Map<String, String> getAttributes();
+
+    /**
+     * Get attributes of the current element without reading them all.
+     * <p>The default implementation wraps {@link #getAttributes()}. Backends should override it with a view
+     * that reads names and values on demand and is reused for every element.</p>
+     *
+     * @return lazy view of attributes, valid until the next event
+     */
+    protected Attributes getAttributeView() {
+        return new MapAttributes(getAttributes());
+    }
+
+    /**
+     * Skip the current element with all its content.
+     * <p>Called on {@code START_ELEMENT} of an element no handler is interested in.
+     * On success the parser stays on the matching {@code END_ELEMENT}, so the next event read by the backend
+     * returns the event following the element. Backends able to skip content cheaper than event by event
+     * (e.g. by scanning raw bytes for the matching end tag) should override the method.</p>
+     *
+     * @return {@code false} if the backend does not support skipping, the content will be read event by event then
+     */
+    protected boolean skipElement() {
+        return false;
+    }
+
+    /**
+     * Called when the parse is stopped before the end of the document, see {@link ParseControl}.
+     * Backends free their input here.
+     */
+    protected void release() {
+    }
+}
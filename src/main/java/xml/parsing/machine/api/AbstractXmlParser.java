@@ -22,81 +22,158 @@ package xml.parsing.machine.api;
 import javax.xml.stream.XMLStreamConstants;
 import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
- * Pure XML traversing logic.
+ * Pure XML traversing logic for backends which read their input on demand, see {@link #next()}.
  */
-public abstract class AbstractXmlParser {
-    private final Deque<XmlNodeHandler> handlers = new ArrayDeque<>();
+public abstract class AbstractXmlParser extends AbstractXmlEngine {
+    @Override
+    public AbstractXmlParser withCoalescing(boolean coalescing) {
+        super.withCoalescing(coalescing);
+        return this;
+    }
+
+    /**
+     * Run a compiled handler graph against the document.
+     * <p>The plan is not modified, so the same plan can be used by many parsers at the same time.</p>
+     *
+     * @param plan compiled graph, see {@link RootHandler#compile()}
+     */
+    public void read(Plan plan) {
+        start(plan);
+        process();
+    }
 
+    /**
+     * Run a compiled handler graph and pass every completed record to the listener.
+     * <p>A record is an element processed by a handler of the given name. The listener is called
+     * right after {@link Handler#close(Consumer)} of that handler, while properties of the record
+     * are still available. The listener must not keep the handler: it is reused for the next record.</p>
+     *
+     * @param plan compiled graph, see {@link RootHandler#compile()}
+     * @param record name of record element
+     * @param listener receives run-time copy of the record handler
+     */
+    public void read(Plan plan, String record, Consumer<? super Handler> listener) {
+        start(plan, record, listener);
+        process();
+    }
+
+    /**
+     * Run a handler graph against the document.
+     * <p>A graph built of {@link RootHandler} is compiled first (see {@link RootHandler#compile()})
+     * and can not be changed after the call. Callbacks receive run-time copies of the handlers, handlers
+     * of the graph itself keep no parsing state.</p>
+     *
+     * @param rootHandler root of the handler graph
+     */
     public void read(XmlNodeHandler rootHandler) {
-        if (rootHandler == null) {
-            throw new IllegalArgumentException("Handler must not be null");
-        }
-        handlers.clear();
-        handlers.push(rootHandler);
-        int eventType;
-        while ((eventType = next()) != XMLStreamConstants.END_DOCUMENT) {
-            switch (eventType) {
-                case XMLStreamConstants.START_DOCUMENT: {
-                    // Simply skip to the first element
-                    break;
-                }
-                case XMLStreamConstants.START_ELEMENT: {
-                    XmlNodeHandler activeHandler = handlers.peek();
-                    if (activeHandler.isActive()) {
-                        XmlNodeHandler nextHandler = activeHandler.onStartElement(getElementName());
-                        if (nextHandler == null || nextHandler == activeHandler) {
-                            activeHandler.down();
-                        } else {
-                            handlers.push(nextHandler);
-                            if (nextHandler.needAttributes()) {
-                                nextHandler.onAttributes(getAttributes());
-                            }
-                        }
-                    } else {
-                        activeHandler.down();
-                    }
-                    break;
-                }
-                case XMLStreamConstants.CHARACTERS: {
-                    handlers.peek().onText(this::getElementText);
-                    break;
-                }
-                case XMLStreamConstants.END_ELEMENT: {
-                    XmlNodeHandler activeHandler = handlers.peek();
-                    if (activeHandler.up() == 0) {
-                        handlers.pop();
-                        if (handlers.isEmpty()) {
-                            return;
-                        }
-                        activeHandler.onEndElement(handlers.peek());
-                    }
-                }
-            }
+        start(rootHandler);
+        process();
+    }
+
+    /**
+     * Read records of a compiled graph on demand.
+     * <p>Nothing is read until the iterator is asked for the next record; then the document is read only
+     * as far as the end of that record. Records are elements processed by a handler of the given name,
+     * see {@link #read(Plan, String, Consumer)}. The mapper gets the handler right after
+     * {@link Handler#close(Consumer)} and must copy what it needs: the handler is reused.</p>
+     * <p>The parser must not be used for anything else until the iterator is exhausted.</p>
+     *
+     * @param plan compiled graph, see {@link RootHandler#compile()}
+     * @param record name of record element
+     * @param mapper makes a record of the handler
+     * @param <T> type of records
+     * @return lazy iterator over the records
+     */
+    public <T> Iterator<T> iterator(Plan plan, String record, Function<? super Handler, ? extends T> mapper) {
+        if (mapper == null) {
+            throw new IllegalArgumentException("Mapper must not be null");
         }
+        return new RecordIterator<>(plan, record, mapper);
     }
 
     /**
-     * Read next tag.
+     * Read records of a compiled graph as a lazy stream, see {@link #iterator(Plan, String, Function)}.
+     * <p>The stream pulls the document as far as its operations need: {@code limit()} or {@code findFirst()}
+     * stop reading. Closing the stream before its end stops the parse. Parallel streams split the records
+     * into batches; the parsing itself stays sequential.</p>
      *
-     * @return see {@link XMLStreamConstants}
+     * @param plan compiled graph, see {@link RootHandler#compile()}
+     * @param record name of record element
+     * @param mapper makes a record of the handler
+     * @param <T> type of records
+     * @return lazy stream of the records
      */
-    protected abstract int next();
+    public <T> Stream<T> stream(Plan plan, String record, Function<? super Handler, ? extends T> mapper) {
+        if (mapper == null) {
+            throw new IllegalArgumentException("Mapper must not be null");
+        }
+        RecordIterator<T> iterator = new RecordIterator<>(plan, record, mapper);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
 
     /**
-     * Get element name
-     * @return name
+     * Pulls events from the parser until the next record is complete.
      */
-    protected abstract String getElementName();
+    private final class RecordIterator<T> implements Iterator<T> {
+        private final Deque<T> records = new ArrayDeque<>();
+        private boolean complete;
+
+        RecordIterator(Plan plan, String record, Function<? super Handler, ? extends T> mapper) {
+            start(plan, record, handler -> records.add(mapper.apply(handler)));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (records.isEmpty() && !complete) {
+                complete = dispatch(AbstractXmlParser.this.next());
+            }
+            return !records.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return records.poll();
+        }
+
+        void close() {
+            if (!complete) {
+                complete = true;
+                control().stop();
+                finish();
+                release();
+            }
+        }
+    }
 
     /**
-     * Get element text
-     * @return text of element
+     * Run a started parse to the end of the document or until it is stopped.
      */
-    protected abstract String getElementText();
+    protected final void process() {
+        while (!dispatch(next())) {
+            // every event is handled by dispatch
+        }
+    }
+
+    /**
+     * Read next tag.
+     *
+     * @return see {@link XMLStreamConstants}
+     */
+    protected abstract int next();
 
-    protected abstract Map<String, String> getAttributes();
 }
@@ -0,0 +1,105 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Lazy view of attributes of the current element.
+ * <p>Names and values are read from the parser only when asked for, so attributes nobody needs are never
+ * turned into strings. The view is reused by the parser and is valid only during the call it is passed to.
+ * Namespace declarations are not included, names are local.</p>
+ */
+public interface Attributes {
+    /**
+     * @return number of attributes
+     */
+    int size();
+
+    /**
+     * @param index attribute index, from 0 to {@link #size()} - 1
+     * @return local name of the attribute
+     */
+    String name(int index);
+
+    /**
+     * @param index attribute index, from 0 to {@link #size()} - 1
+     * @return value of the attribute
+     */
+    String value(int index);
+
+    /**
+     * @param index attribute index, from 0 to {@link #size()} - 1
+     * @return namespace URI of the attribute, {@code null} if the attribute has no namespace
+     * or the parser does not resolve namespaces
+     */
+    default String namespace(int index) {
+        return null;
+    }
+
+    /**
+     * Find value of attribute by namespace and local name.
+     *
+     * @param namespace namespace URI, {@code null} for attributes without namespace
+     * @param name local name of attribute
+     * @return value or {@code null} if the element does not have the attribute
+     */
+    default String get(String namespace, String name) {
+        for (int i = 0, n = size(); i < n; i++) {
+            if (name.equals(name(i))) {
+                String uri = namespace(i);
+                if (namespace == null || namespace.isEmpty() ? uri == null || uri.isEmpty() : namespace.equals(uri)) {
+                    return value(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find value of attribute by local name.
+     *
+     * @param name local name of attribute
+     * @return value or {@code null} if the element does not have the attribute
+     */
+    default String get(String name) {
+        for (int i = 0, n = size(); i < n; i++) {
+            if (name.equals(name(i))) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy all attributes.
+     *
+     * @return map of local name to value
+     */
+    default Map<String, String> toMap() {
+        int size = size();
+        Map<String, String> result = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            result.put(name(i), value(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+
+/**
+ * Reusable {@link CharSequence} over a region of a char array.
+ * <p>Parsers pass text to {@link Handler#chars(java.util.function.Consumer)} through a view like this
+ * instead of making a {@code String} of every text node. The view points into the internal buffer of the parser,
+ * so it is valid only while the callback runs. Use {@link #toString()} to keep the value.</p>
+ */
+public final class CharView implements CharSequence {
+    private char[] chars = new char[0];
+    private int start;
+    private int length;
+
+    /**
+     * Point the view to another region.
+     *
+     * @param chars array with the text
+     * @param start offset of the text in the array
+     * @param length length of the text
+     * @return {@code this}
+     */
+    public CharView set(char[] chars, int start, int length) {
+        if (chars == null) {
+            throw new IllegalArgumentException("Array must not be null");
+        }
+        if (start < 0 || length < 0 || start > chars.length - length) {
+            throw new IllegalArgumentException("Region is out of the array");
+        }
+        this.chars = chars;
+        this.start = start;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of 0.." + length);
+        }
+        return chars[start + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " is out of 0.." + length);
+        }
+        return new String(chars, this.start + start, end - start);
+    }
+
+    /**
+     * Compare the text with a string without copying it.
+     *
+     * @param value string to compare with
+     * @return {@code true} if the view contains the same characters
+     */
+    public boolean contentEquals(String value) {
+        if (value == null || value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the text to an array.
+     *
+     * @param target destination array
+     * @param offset position in the destination
+     */
+    void copyTo(char[] target, int offset) {
+        System.arraycopy(chars, start, target, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, start, length);
+    }
+}
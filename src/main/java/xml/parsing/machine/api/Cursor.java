@@ -0,0 +1,246 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+
+
+/**
+ * State of a single run of a {@link Plan}.
+ * <p>Keeps run-time copies of the graph nodes. The copies are created on the first visit of the node,
+ * so a run pays only for the part of the graph the document actually touches.</p>
+ */
+final class Cursor {
+    private final Plan plan;
+    private final RootHandler[] frames;
+    final ParseControl control;
+    /**
+     * Child lookup of a tabulated plan, see {@link Plan#tabulate()}.
+     */
+    final IntBinaryOperator transitions;
+    private boolean[] records;
+    private Consumer<? super Handler> recordListener;
+    private boolean[] checkpointRecords;
+    private int checkpointInterval;
+    private long checkpointCount;
+    private boolean checkpointDue;
+
+    Cursor(Plan plan, ParseControl control) {
+        this.plan = plan;
+        this.control = control;
+        this.transitions = plan.transitions();
+        this.frames = new RootHandler[plan.size()];
+    }
+
+    /**
+     * Prepare the cursor for the next run of the same plan. Copies created by the previous runs are kept,
+     * so a parser reading many documents creates them only once.
+     *
+     * @return {@code this}
+     */
+    Cursor reset() {
+        for (RootHandler frame : frames) {
+            if (frame instanceof Handler) {
+                ((Handler) frame).reset();
+            }
+        }
+        records = null;
+        recordListener = null;
+        checkpointRecords = null;
+        checkpointCount = 0;
+        checkpointDue = false;
+        return this;
+    }
+
+    boolean runs(Plan plan) {
+        return this.plan == plan;
+    }
+
+    /**
+     * Get run-time copy of the graph root.
+     *
+     * @return root handler to pass to the parser
+     */
+    RootHandler root() {
+        RootHandler frame = frames[0];
+        if (frame == null) {
+            frame = plan.root().copy(this);
+            frames[0] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Get run-time copy of a node.
+     *
+     * @param template node of the compiled graph
+     * @return copy owned by the cursor
+     */
+    Handler frame(Handler template) {
+        Handler frame = (Handler) frames[template.index];
+        if (frame == null) {
+            frame = template.copy(this);
+            frames[template.index] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Subscribe to completion of record elements.
+     *
+     * @param token name of record element
+     * @param listener receives run-time copy of the record handler
+     */
+    void listen(String token, Consumer<? super Handler> listener) {
+        records = plan.select(token);
+        recordListener = listener;
+    }
+
+    /**
+     * Ask for a checkpoint after every {@code interval} completed records, see {@link #checkpointDue()}.
+     *
+     * @param token name of record element
+     * @param interval number of records between checkpoints
+     */
+    void checkpointEvery(String token, int interval) {
+        checkpointRecords = plan.select(token);
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Tells if a checkpoint is to be taken, once per checkpoint.
+     *
+     * @return {@code true} if enough records have been completed since the last checkpoint
+     */
+    boolean checkpointDue() {
+        boolean due = checkpointDue;
+        checkpointDue = false;
+        return due;
+    }
+
+    /**
+     * Capture state of the run.
+     *
+     * @param stack active handlers from the root to the top
+     * @return state of the run
+     */
+    RunState save(List<XmlNodeHandler> stack) {
+        int size = stack.size() - 1;
+        int[] indexes = new int[size];
+        int[] depths = new int[size];
+        String[][] slots = new String[size][];
+        List<Map<String, String>> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Handler frame = (Handler) stack.get(i + 1);
+            indexes[i] = frame.index;
+            depths[i] = frame.depth;
+            slots[i] = frame.slots().clone();
+            values.add(frame.values() == null ? null : new HashMap<>(frame.values()));
+        }
+        int count = 0;
+        for (RootHandler frame : frames) {
+            if (frame instanceof Handler && ((Handler) frame).closedCount() > 0) {
+                count++;
+            }
+        }
+        int[] counted = new int[count];
+        long[] counts = new long[count];
+        count = 0;
+        for (RootHandler frame : frames) {
+            if (frame instanceof Handler && ((Handler) frame).closedCount() > 0) {
+                counted[count] = frame.index;
+                counts[count++] = ((Handler) frame).closedCount();
+            }
+        }
+        return new RunState(plan.fingerprint(), checkpointCount, indexes, depths, slots, values, counted, counts);
+    }
+
+    /**
+     * Bring handlers into the captured state.
+     *
+     * @param state state taken by {@link #save(List)} from a run of the same plan
+     * @return active handlers from the one above the root to the top
+     */
+    List<Handler> restore(RunState state) {
+        if (state.fingerprint != plan.fingerprint()) {
+            throw new IllegalArgumentException("The state was taken from a run of another plan");
+        }
+        List<Handler> stack = new ArrayList<>(state.indexes.length);
+        for (int i = 0; i < state.indexes.length; i++) {
+            Handler frame = frame((Handler) plan.node(state.indexes[i]));
+            frame.restore(state.depths[i], state.slots[i], state.values.get(i));
+            stack.add(frame);
+        }
+        for (int i = 0; i < state.counted.length; i++) {
+            frame((Handler) plan.node(state.counted[i])).restoreClosedCount(state.counts[i]);
+        }
+        checkpointCount = state.records;
+        return stack;
+    }
+
+    /**
+     * Pass collected batches to their consumers.
+     */
+    void flush() {
+        for (RootHandler frame : frames) {
+            if (frame instanceof Handler) {
+                ((Handler) frame).flushBatch();
+            }
+        }
+    }
+
+    /**
+     * Pass batches whose time limit has passed to their consumers.
+     */
+    void flushExpired() {
+        long now = System.nanoTime();
+        for (RootHandler frame : frames) {
+            if (frame instanceof Handler) {
+                ((Handler) frame).flushExpiredBatch(now);
+            }
+        }
+    }
+
+    /**
+     * Called when the run is over: at the end of the document or when parsing is stopped.
+     */
+    void finish() {
+        flush();
+    }
+
+    /**
+     * Called by a handler when it completes its element.
+     *
+     * @param frame run-time copy of the handler
+     */
+    void closed(Handler frame) {
+        if (records != null && records[frame.index]) {
+            recordListener.accept(frame);
+        }
+        if (checkpointRecords != null && checkpointRecords[frame.index]
+                && ++checkpointCount % checkpointInterval == 0) {
+            checkpointDue = true;
+        }
+    }
+}
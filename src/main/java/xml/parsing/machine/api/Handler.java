@@ -18,26 +18,82 @@ under the License.
  */
 package xml.parsing.machine.api;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
 
+import javax.xml.namespace.QName;
+
 
 /**
  * This class is a brick you build your parsing model from.
  * Implements a state machine builder for xml structure.
  */
 public class Handler extends RootHandler {
+    /**
+     * Token of handlers created by {@link RootHandler#any()}.
+     */
+    static final String ANY = "*";
+    /**
+     * Namespace identifier of handlers which match elements of any namespace.
+     */
+    static final int ANY_NAMESPACE = -2;
     protected int depth = 1;
     protected boolean active = false;
     protected boolean attributed = false;
+    private boolean propagating = false;
     private final String token;
+    private final String namespace;
+    /**
+     * Identifier of {@link #namespace}, set when the graph is compiled.
+     */
+    int namespaceId = ANY_NAMESPACE;
     private Map<String, String> values;
     protected Consumer<String> textConsumer = null;
+    protected Consumer<CharSequence> charsConsumer = null;
+    /**
+     * Consumer of typed text handlers. Gets the whole text of the element when it ends.
+     */
+    private BiConsumer<Handler, CharSequence> valueConsumer;
+    private char[] value;
+    private int valueLength;
+    private boolean valuePending;
+    private CharView valueView;
     protected Consumer<Handler> startConsumer = null;
     protected Consumer<Handler> finallyConsumer = null;
     private Function<Handler, Boolean> assumption;
+    private String[] attributeNames;
+    private String[] attributeKeys;
+    /**
+     * Slots of properties, set when the graph is compiled.
+     */
+    private Layout layout;
+    private String[] slots;
+    private BiConsumer<Handler, Attributes> attributesConsumer;
+    private MalformedTextPolicy malformedPolicy = MalformedTextPolicy.THROW;
+    private long stopAfter;
+    private long closedCount;
+    private Consumer<? super List<Snapshot>> batchConsumer;
+    private int batchSize;
+    private long batchDelay;
+    private List<Snapshot> batch;
+    private List<Snapshot> batchView;
+    private long batchStarted;
+    /**
+     * Node which defined this handler with {@link RootHandler#descendant(String)}.
+     */
+    RootHandler owner;
+    /**
+     * Handler of the enclosing element, set when the handler is entered.
+     */
+    Handler parent;
+    private Object attachment;
 
     /**
      * This method allows to combine tags so you can process different elements. For example,
@@ -75,6 +131,22 @@ public class Handler extends RootHandler {
         return this;
     }
 
+    /**
+     * The same as {@link #or(String, Consumer)} for element of the given namespace,
+     * see {@link RootHandler#then(QName)}.
+     *
+     * @param name qualified element name to wait for
+     * @param consumer function to customize the nested handler
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler or(QName name, Consumer<Handler> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        consumer.accept(then(name));
+        return this;
+    }
+
     /**
      * Defines how to process text of element.
      *
@@ -87,13 +159,323 @@ public class Handler extends RootHandler {
         if (consumer == null) {
             throw new IllegalArgumentException("Consumer must not be null");
         }
-        if (textConsumer != null) {
+        checkNotCompiled();
+        if (textConsumer != null || charsConsumer != null || valueConsumer != null) {
             throw new IllegalStateException("Duplicate call to text()");
         }
+        if (propagating) {
+            throw new IllegalStateException("Method text() can not be combined with propagate()");
+        }
         textConsumer = consumer;
         return this;
     }
 
+    /**
+     * Defines how to process text of element without making a {@code String} of it.
+     * <p>The consumer gets a reusable view of the parser buffer (see {@link CharView}). It is valid only
+     * during the call, so the consumer must not keep it: call {@code toString()} to keep the value.
+     * Good for comparing, hashing or parsing numbers from text of hot record fields:</p>
+     * <pre>
+     *     book.then("year").chars(year -&gt; stats.add(year.length() == 4 &amp;&amp; year.charAt(0) == '2'));
+     * </pre>
+     * <p>This functionality can not be combined with {@link Handler#text(Consumer)} and
+     * {@link Handler#propagate()}.</p>
+     *
+     * @param consumer function that processes text of element
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler chars(Consumer<CharSequence> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        checkNotCompiled();
+        if (textConsumer != null || charsConsumer != null || valueConsumer != null) {
+            throw new IllegalStateException("Duplicate call to chars()");
+        }
+        if (propagating) {
+            throw new IllegalStateException("Method chars() can not be combined with propagate()");
+        }
+        charsConsumer = consumer;
+        return this;
+    }
+
+    /**
+     * Defines how to process text of element holding an {@code int}.
+     * <p>Text fragments the reader delivers (it may split text at entities, CDATA sections and buffer edges)
+     * are collected in a buffer reused by the handler, and the value is parsed from it once when the element
+     * ends, before {@link Handler#close(Consumer)}. No {@code String} is made. Leading and trailing whitespace
+     * is ignored. See {@link Handler#malformed(MalformedTextPolicy)} for values which can not be parsed.
+     * Elements without text get no value.</p>
+     * <p>This functionality can not be combined with other text handlers and {@link Handler#propagate()}.</p>
+     *
+     * @param consumer function that processes the value
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler intText(IntConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value((h, text) -> h.intValue(text, consumer));
+    }
+
+    /**
+     * Defines how to process text of element holding a {@code long}, see {@link Handler#intText(IntConsumer)}.
+     *
+     * @param consumer function that processes the value
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler longText(LongConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value((h, text) -> h.longValue(text, consumer));
+    }
+
+    /**
+     * Defines how to process text of element holding a {@code double}, see {@link Handler#intText(IntConsumer)}.
+     * <p>Besides decimal numbers, {@code INF}, {@code -INF} and {@code NaN} are accepted.</p>
+     *
+     * @param consumer function that processes the value
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler doubleText(DoubleConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value((h, text) -> h.doubleValue(text, consumer));
+    }
+
+    /**
+     * Defines how to process text of element holding a {@code boolean}, see {@link Handler#intText(IntConsumer)}.
+     * <p>Accepted values are {@code true}, {@code false}, {@code 1} and {@code 0}.</p>
+     *
+     * @param consumer function that processes the value
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler booleanText(BooleanConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value((h, text) -> h.booleanValue(text, consumer));
+    }
+
+    /**
+     * Defines how to process text of element holding an ISO-8601 timestamp,
+     * see {@link Handler#intText(IntConsumer)}.
+     * <p>Accepted values are {@code yyyy-mm-dd} optionally followed by {@code Thh:mm}, seconds, fraction
+     * of second and zone ({@code Z} or {@code +hh:mm}). Values without zone are taken as UTC.</p>
+     *
+     * @param consumer function that processes milliseconds since the epoch
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler timestampText(LongConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value((h, text) -> h.timestampValue(text, consumer));
+    }
+
+    /**
+     * Defines what typed text handlers (like {@link Handler#intText(IntConsumer)}) do with values
+     * which can not be parsed. By default parsing stops with {@link IllegalArgumentException}.
+     *
+     * @param policy policy for malformed values
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler malformed(MalformedTextPolicy policy) {
+        checkNotCompiled();
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null");
+        }
+        malformedPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Defines how to process the whole text of element.
+     * <p>Unlike {@link Handler#chars(Consumer)}, the consumer is called once, when the element ends and before
+     * {@link Handler#close(Consumer)}, with all the fragments the reader delivered collected in a buffer of the
+     * handler. The text is valid only during the call. The consumer gets the run-time copy of the handler too,
+     * so it can reach per-run state, see {@link Handler#attachment()}, and parse typed values
+     * (see {@link Handler#intValue(CharSequence, IntConsumer)}). Elements without text are not reported.</p>
+     * <p>This functionality can not be combined with other text handlers and {@link Handler#propagate()}.</p>
+     *
+     * @param consumer function that processes the handler and text of its element
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler content(BiConsumer<Handler, CharSequence> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return value(consumer);
+    }
+
+    /**
+     * Parse an {@code int} the way {@link Handler#intText(IntConsumer)} does, respecting
+     * {@link Handler#malformed(MalformedTextPolicy)} of the handler.
+     *
+     * @param text text to parse, like an attribute value or text got by {@link Handler#content(BiConsumer)}
+     * @param consumer receives the value unless it is malformed
+     */
+    public void intValue(CharSequence text, IntConsumer consumer) {
+        int value;
+        try {
+            value = TextParsers.parseInt(text);
+        } catch (TextParsers.Malformed e) {
+            rejectMalformed(text, "int");
+            return;
+        }
+        consumer.accept(value);
+    }
+
+    /**
+     * Parse a {@code long}, see {@link Handler#intValue(CharSequence, IntConsumer)}.
+     *
+     * @param text text to parse
+     * @param consumer receives the value unless it is malformed
+     */
+    public void longValue(CharSequence text, LongConsumer consumer) {
+        long value;
+        try {
+            value = TextParsers.parseLong(text);
+        } catch (TextParsers.Malformed e) {
+            rejectMalformed(text, "long");
+            return;
+        }
+        consumer.accept(value);
+    }
+
+    /**
+     * Parse a {@code double}, see {@link Handler#intValue(CharSequence, IntConsumer)}.
+     *
+     * @param text text to parse
+     * @param consumer receives the value unless it is malformed
+     */
+    public void doubleValue(CharSequence text, DoubleConsumer consumer) {
+        double value;
+        try {
+            value = TextParsers.parseDouble(text);
+        } catch (TextParsers.Malformed e) {
+            rejectMalformed(text, "double");
+            return;
+        }
+        consumer.accept(value);
+    }
+
+    /**
+     * Parse a {@code boolean}, see {@link Handler#intValue(CharSequence, IntConsumer)}.
+     *
+     * @param text text to parse
+     * @param consumer receives the value unless it is malformed
+     */
+    public void booleanValue(CharSequence text, BooleanConsumer consumer) {
+        boolean value;
+        try {
+            value = TextParsers.parseBoolean(text);
+        } catch (TextParsers.Malformed e) {
+            rejectMalformed(text, "boolean");
+            return;
+        }
+        consumer.accept(value);
+    }
+
+    /**
+     * Parse an ISO-8601 timestamp, see {@link Handler#intValue(CharSequence, IntConsumer)}
+     * and {@link Handler#timestampText(LongConsumer)}.
+     *
+     * @param text text to parse
+     * @param consumer receives milliseconds since the epoch unless the value is malformed
+     */
+    public void timestampValue(CharSequence text, LongConsumer consumer) {
+        long value;
+        try {
+            value = TextParsers.parseTimestamp(text);
+        } catch (TextParsers.Malformed e) {
+            rejectMalformed(text, "timestamp");
+            return;
+        }
+        consumer.accept(value);
+    }
+
+    /**
+     * Keep an object with the run-time copy of the handler until its element ends, like the record being
+     * filled. Nested handlers find it with {@link Handler#attachment()}, so per-run state does not have to be
+     * captured by callbacks of a plan shared by concurrent parsers.
+     *
+     * @param attachment object to keep, {@code null} to forget
+     * @return {@code this}
+     */
+    public Handler attach(Object attachment) {
+        this.attachment = attachment;
+        return this;
+    }
+
+    /**
+     * Get the object kept by {@link Handler#attach(Object)} of this handler or, if it has none, of the nearest
+     * handler of an enclosing element.
+     *
+     * @return attached object or {@code null}
+     */
+    public Object attachment() {
+        for (Handler h = this; h != null; h = h.parent) {
+            if (h.attachment != null) {
+                return h.attachment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Common part of content handlers: the consumer gets the whole text of the element when it ends.
+     */
+    private Handler value(BiConsumer<Handler, CharSequence> consumer) {
+        checkNotCompiled();
+        if (textConsumer != null || charsConsumer != null || valueConsumer != null) {
+            throw new IllegalStateException("Duplicate call to text handler");
+        }
+        if (propagating) {
+            throw new IllegalStateException("Typed text handlers can not be combined with propagate()");
+        }
+        valueConsumer = consumer;
+        return this;
+    }
+
+    private void appendValue(CharSequence text) {
+        int length = text.length();
+        if (value == null) {
+            value = new char[Math.max(32, length)];
+        } else if (value.length - valueLength < length) {
+            value = Arrays.copyOf(value, Math.max(value.length * 2, valueLength + length));
+        }
+        if (text instanceof CharView) {
+            ((CharView) text).copyTo(value, valueLength);
+        } else {
+            for (int i = 0; i < length; i++) {
+                value[valueLength + i] = text.charAt(i);
+            }
+        }
+        valueLength += length;
+        valuePending = true;
+    }
+
+    private void deliverValue() {
+        valuePending = false;
+        if (valueView == null) {
+            valueView = new CharView();
+        }
+        try {
+            valueConsumer.accept(this, valueView.set(value, 0, valueLength));
+        } finally {
+            valueLength = 0;
+        }
+    }
+
+    private void rejectMalformed(CharSequence text, String type) {
+        if (malformedPolicy == MalformedTextPolicy.THROW) {
+            throw new IllegalArgumentException("Malformed " + type + " value '" + text + "' of element " + token);
+        }
+    }
+
     /**
      * Makes handler to share it's text value with parent handler.
      * The feature is useful for collecting simple values from sub-elements
@@ -127,13 +509,11 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public Handler propagate() {
-        if (textConsumer != null) {
+        checkNotCompiled();
+        if (textConsumer != null || charsConsumer != null || valueConsumer != null) {
             throw new IllegalStateException("Method propagate() can not be combined with text()");
         }
-        if (values == null) {
-            values = new HashMap<>();
-        }
-        textConsumer = x -> values.put(null, x);
+        propagating = true;
         return this;
     }
 
@@ -147,10 +527,74 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public Handler withAttributes() {
+        checkNotCompiled();
+        if (attributeNames != null) {
+            throw new IllegalStateException("Attributes are already projected");
+        }
         attributed = true;
-        if (values == null) {
-            values = new HashMap<>();
+        return this;
+    }
+
+    /**
+     * Tells the handler to collect only the given attributes.
+     * <p>Unlike {@link #withAttributes()}, other attributes of the element are never read. Values are kept
+     * in slots allocated once per parse and are available through {@link Handler#getProperty(String)}
+     * the same way: {@code withAttributes("id", "lang")} gives {@code @id} and {@code @lang}.</p>
+     *
+     * @param names local names of attributes
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler withAttributes(String... names) {
+        checkNotCompiled();
+        if (names == null || names.length == 0) {
+            throw new IllegalArgumentException("Attribute names must not be empty");
+        }
+        if (attributed) {
+            throw new IllegalStateException("Duplicate call to withAttributes()");
         }
+        String[] keys = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null || names[i].isEmpty()) {
+                throw new IllegalArgumentException("Attribute name must not be empty");
+            }
+            keys[i] = '@' + names[i];
+        }
+        attributed = true;
+        attributeNames = names.clone();
+        attributeKeys = keys;
+        return this;
+    }
+
+    /**
+     * Defines action to take on attributes of matching element.
+     * <p>The consumer gets a lazy view: only attributes it asks for are read. The view is valid only
+     * during the call. Fires after {@link Handler#open(Consumer)}.</p>
+     *
+     * @param consumer action
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler attributes(Consumer<Attributes> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        return attributes((h, attributes) -> consumer.accept(attributes));
+    }
+
+    /**
+     * The same as {@link Handler#attributes(Consumer)} for a consumer that needs the run-time copy of the handler.
+     *
+     * @param consumer action
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler attributes(BiConsumer<Handler, Attributes> consumer) {
+        checkNotCompiled();
+        if (attributesConsumer != null) {
+            throw new IllegalStateException("Duplicate call of attributes()");
+        }
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        attributesConsumer = consumer;
         return this;
     }
 
@@ -162,6 +606,7 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public Handler open(Consumer<Handler> consumer) {
+        checkNotCompiled();
         if (startConsumer != null) {
             throw new IllegalStateException("Duplicate call of open()");
         }
@@ -179,6 +624,7 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public Handler close(Consumer<Handler> consumer) {
+        checkNotCompiled();
         if (finallyConsumer != null) {
             throw new IllegalStateException("Duplicate call of close()");
         }
@@ -189,6 +635,71 @@ public class Handler extends RootHandler {
         return this;
     }
 
+    /**
+     * Stops parsing when the given number of matching elements has been processed.
+     * <p>Useful to read the first records of a large document. The parse stops right after
+     * {@link Handler#close(Consumer)} of the last element; handlers of its ancestors are not closed.</p>
+     *
+     * @param count number of elements to process
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler stopAfter(long count) {
+        checkNotCompiled();
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive");
+        }
+        stopAfter = count;
+        return this;
+    }
+
+    /**
+     * Collects snapshots of processed elements (see {@link Handler#snapshot()}) into batches.
+     * <p>Good for sinks which write in bulk, like JDBC batch inserts. A batch is passed to the consumer when
+     * it has {@code size} records and when parsing ends, even if it is not full. The list is reused for the
+     * next batch, so the consumer must copy it to keep the records; the snapshots themselves are immutable.</p>
+     *
+     * @param size number of records in a batch
+     * @param consumer receives batches
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler closeBatch(int size, Consumer<? super List<Snapshot>> consumer) {
+        return closeBatch(size, null, consumer);
+    }
+
+    /**
+     * Collects snapshots of processed elements into batches limited by size and time,
+     * see {@link Handler#closeBatch(int, Consumer)}.
+     * <p>The batch is also passed to the consumer when {@code maxDelay} has passed since the first record
+     * of the batch. Time is checked when elements complete and when a backend waits for input: a
+     * {@link xml.parsing.machine.bytes.PushParser} fed with no bytes, e.g. by
+     * {@link xml.parsing.machine.bytes.FileFollower} while the file does not grow. Blocking parsers check it
+     * only when elements complete.</p>
+     *
+     * @param size number of records in a batch
+     * @param maxDelay maximum time to keep a record in the batch, {@code null} for no limit
+     * @param consumer receives batches
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public Handler closeBatch(int size, Duration maxDelay, Consumer<? super List<Snapshot>> consumer) {
+        checkNotCompiled();
+        if (batchConsumer != null) {
+            throw new IllegalStateException("Duplicate call of closeBatch()");
+        }
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (maxDelay != null && (maxDelay.isNegative() || maxDelay.isZero())) {
+            throw new IllegalArgumentException("Delay must be positive");
+        }
+        batchConsumer = consumer;
+        batchSize = size;
+        batchDelay = maxDelay == null ? 0 : maxDelay.toNanos();
+        return this;
+    }
+
     /**
      * Allows to filter node on custom criteria.
      * <p>
@@ -215,6 +726,7 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public Handler assume(Function<Handler, Boolean> assumption) {
+        checkNotCompiled();
         if (this.assumption == null) {
             this.assumption = assumption;
         } else {
@@ -233,48 +745,253 @@ public class Handler extends RootHandler {
      * @return {@code this} that allows to continue the pipeline
      */
     public String getProperty(String name) {
+        if (slots != null) {
+            int slot = layout.slot(name);
+            if (slot != Layout.NONE) {
+                return slots[slot];
+            }
+        }
         if (values == null) {
+            if (slots != null && slots.length > 0) {
+                return null;
+            }
             throw new IllegalStateException("None of the children provided a value. Did you forgot propagate()?");
         } else {
             return values.get(name);
         }
     }
 
+    /**
+     * Take an immutable copy of the properties of the handler.
+     * <p>Properties of a handler are reset when its element ends, so callbacks use snapshots to keep
+     * records or to pass them to other threads.</p>
+     *
+     * @return copy of the properties
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(token, layout, slots == null ? null : slots.clone(),
+                values == null || values.isEmpty() ? null : new HashMap<>(values));
+    }
+
+    /**
+     * Get control of the running parse. Callbacks use it to stop parsing, see {@link ParseControl}.
+     *
+     * @return control of the parser running the graph
+     */
+    public ParseControl control() {
+        if (cursor == null) {
+            throw new IllegalStateException("Control is available for a running graph only");
+        }
+        return cursor.control;
+    }
+
+    /**
+     * Get property by handle. Works as {@link Handler#getProperty(String)} but finds the property
+     * once per plan rather than on every call.
+     *
+     * @param property handle of the property
+     * @return value of the property
+     */
+    public String getProperty(Property property) {
+        if (property == null) {
+            throw new IllegalArgumentException("Property must not be null");
+        }
+        if (slots != null) {
+            int slot = property.slot(layout);
+            if (slot != Layout.NONE) {
+                return slots[slot];
+            }
+        }
+        return getProperty(property.name());
+    }
+
     protected Handler(String token) {
+        this(token, null);
+    }
+
+    /**
+     * Creates handler of a namespace qualified element.
+     *
+     * @param token local name of the element
+     * @param namespace namespace URI, {@code null} for any namespace
+     */
+    Handler(String token, String namespace) {
         if (token == null || token.isEmpty()) {
             throw new IllegalArgumentException("Token must not be empty");
         }
         this.token = token;
+        this.namespace = namespace;
+    }
+
+    /**
+     * Creates a run-time copy of a compiled handler. The copy shares configuration with the template
+     * and keeps its own parsing state.
+     *
+     * @param template compiled handler
+     * @param cursor owner of the copy
+     */
+    Handler(Handler template, Cursor cursor) {
+        super(template, cursor);
+        this.token = template.token;
+        this.namespace = template.namespace;
+        this.namespaceId = template.namespaceId;
+        this.attributed = template.attributed;
+        this.propagating = template.propagating;
+        this.textConsumer = template.textConsumer;
+        this.charsConsumer = template.charsConsumer;
+        this.valueConsumer = template.valueConsumer;
+        this.startConsumer = template.startConsumer;
+        this.finallyConsumer = template.finallyConsumer;
+        this.assumption = template.assumption;
+        this.attributeNames = template.attributeNames;
+        this.attributeKeys = template.attributeKeys;
+        this.attributesConsumer = template.attributesConsumer;
+        this.malformedPolicy = template.malformedPolicy;
+        this.stopAfter = template.stopAfter;
+        this.batchConsumer = template.batchConsumer;
+        this.batchSize = template.batchSize;
+        this.batchDelay = template.batchDelay;
+        this.owner = template.owner;
+        if (batchConsumer != null) {
+            batch = new ArrayList<>(batchSize);
+            batchView = Collections.unmodifiableList(batch);
+        }
+        this.layout = template.layout;
+        slots = new String[layout.keys.length];
+        if (layout.dynamic) {
+            values = new HashMap<>();
+        }
+    }
+
+    /**
+     * Assign slots to the properties the handler can get. Children must be laid out before their parent.
+     */
+    void layout() {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        int textSlot = Layout.NONE;
+        if (propagating) {
+            textSlot = slot(index, keys, null);
+        }
+        int[] attributeSlots = null;
+        if (attributeKeys != null) {
+            attributeSlots = new int[attributeKeys.length];
+            for (int i = 0; i < attributeKeys.length; i++) {
+                attributeSlots[i] = slot(index, keys, attributeKeys[i]);
+            }
+        }
+        boolean dynamic = attributed && attributeNames == null;
+        for (Handler child : nodes()) {
+            Layout nested = child.layout;
+            int[] parentSlots = new int[nested.keys.length];
+            for (int i = 0; i < parentSlots.length; i++) {
+                String key = nested.keys[i];
+                parentSlots[i] = slot(index, keys, key == null ? child.token : child.token + '/' + key);
+            }
+            nested.parentSlots = parentSlots;
+            dynamic |= nested.dynamic;
+        }
+        layout = new Layout(keys.toArray(new String[0]), index, textSlot, attributeSlots, dynamic);
+    }
+
+    private static int slot(Map<String, Integer> index, List<String> keys, String key) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            slot = keys.size();
+            index.put(key, slot);
+            keys.add(key);
+        }
+        return slot;
+    }
+
+    String token() {
+        return token;
+    }
+
+    String namespace() {
+        return namespace;
+    }
+
+    @Override
+    Handler copy(Cursor cursor) {
+        return new Handler(this, cursor);
     }
 
     @Override
     public XmlNodeHandler onStartElement(String name) {
-        if (depth != 1) {
-            return null;
+        if (active && (assumption == null || !Boolean.FALSE.equals(assumption.apply(this)))) {
+            return depth == 1 ? super.onStartElement(name) : nested(name);
+        }
+        return depth == 1 ? this : null;
+    }
+
+    @Override
+    XmlNodeHandler onStartElement(int symbol, int namespace) {
+        if (active && (assumption == null || !Boolean.FALSE.equals(assumption.apply(this)))) {
+            return depth == 1 ? super.onStartElement(symbol, namespace) : nested(symbol);
         }
+        return depth == 1 ? this : null;
+    }
+
+    @Override
+    public void onText(Supplier<String> text) {
         if (active) {
-            if (assumption == null || !Boolean.FALSE.equals(assumption.apply(this))) {
-                return super.onStartElement(name);
+            if (propagating) {
+                store(layout == null ? Layout.NONE : layout.textSlot, null, text.get());
+            } else if (textConsumer != null) {
+                textConsumer.accept(text.get());
+            } else if (charsConsumer != null) {
+                charsConsumer.accept(text.get());
+            } else if (valueConsumer != null) {
+                appendValue(text.get());
             }
         }
-        return this;
     }
 
     @Override
-    public void onText(Supplier<String> text) {
-        if (active && textConsumer != null) {
-            textConsumer.accept(text.get());
+    public void onCharacters(Supplier<CharSequence> text) {
+        if (active) {
+            if (propagating) {
+                store(layout == null ? Layout.NONE : layout.textSlot, null, text.get().toString());
+            } else if (textConsumer != null) {
+                textConsumer.accept(text.get().toString());
+            } else if (charsConsumer != null) {
+                charsConsumer.accept(text.get());
+            } else if (valueConsumer != null) {
+                appendValue(text.get());
+            }
         }
     }
 
     @Override
     public void onAttributes(Map<String, String> values) {
-        assert attributed;
-        assert this.values != null;
         if (values == null) {
             throw new IllegalArgumentException("Argument must not be null");
         }
-        values.forEach((key, value) -> this.values.put("@" + key, value));
+        onAttributes(new MapAttributes(values));
+    }
+
+    @Override
+    public void onAttributes(Attributes attributes) {
+        if (attributes == null) {
+            throw new IllegalArgumentException("Argument must not be null");
+        }
+        if (attributeNames != null) {
+            for (int i = 0; i < attributeNames.length; i++) {
+                store(layout == null ? Layout.NONE : layout.attributeSlots[i], attributeKeys[i],
+                        attributes.get(attributeNames[i]));
+            }
+        } else if (attributed) {
+            if (this.values == null) {
+                this.values = new HashMap<>();
+            }
+            for (int i = 0, n = attributes.size(); i < n; i++) {
+                this.values.put("@" + attributes.name(i), attributes.value(i));
+            }
+        }
+        if (attributesConsumer != null) {
+            attributesConsumer.accept(this, attributes);
+        }
     }
 
     @Override
@@ -283,9 +1000,40 @@ public class Handler extends RootHandler {
             throw new IllegalStateException("Can be called for active handlers only");
         }
         active = false;
+        if (valuePending) {
+            deliverValue();
+        }
         if (finallyConsumer != null) {
             finallyConsumer.accept(this);
         }
+        attachment = null;
+        if (batch != null) {
+            addToBatch();
+        }
+        if (cursor != null) {
+            cursor.closed(this);
+            if (stopAfter > 0 && ++closedCount >= stopAfter) {
+                cursor.control.stop();
+            }
+        }
+        if (owner != null) {
+            // descendants report to the handler which defined them
+            parent = owner instanceof Handler && cursor != null ? cursor.frame((Handler) owner) : owner;
+        }
+        if (slots != null) {
+            int[] parentSlots = layout.parentSlots;
+            if (parentSlots != null && parent instanceof Handler) {
+                String[] target = ((Handler) parent).slots;
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i] != null) {
+                        target[parentSlots[i]] = slots[i];
+                        slots[i] = null;
+                    }
+                }
+            } else {
+                Arrays.fill(slots, null);
+            }
+        }
         if (values != null && parent instanceof Handler) {
             Handler h = (Handler) parent;
             if (h.values == null) {
@@ -306,6 +1054,112 @@ public class Handler extends RootHandler {
         }
     }
 
+    private void addToBatch() {
+        if (batch.isEmpty() && batchDelay > 0) {
+            batchStarted = System.nanoTime();
+        }
+        batch.add(snapshot());
+        if (batch.size() >= batchSize || batchDelay > 0 && System.nanoTime() - batchStarted >= batchDelay) {
+            flushBatch();
+        }
+    }
+
+    String[] slots() {
+        return slots;
+    }
+
+    Map<String, String> values() {
+        return values;
+    }
+
+    long closedCount() {
+        return closedCount;
+    }
+
+    /**
+     * Continue a run from a checkpoint, see {@link Cursor#restore(RunState)}.
+     *
+     * @param depth depth inside the element
+     * @param slots collected properties
+     * @param values collected dynamic properties, may be {@code null}
+     */
+    void restore(int depth, String[] slots, Map<String, String> values) {
+        if (slots.length != this.slots.length) {
+            throw new IllegalArgumentException("The state does not match layout of the handler");
+        }
+        this.depth = depth;
+        this.active = true;
+        System.arraycopy(slots, 0, this.slots, 0, slots.length);
+        if (values != null) {
+            if (this.values == null) {
+                this.values = new HashMap<>();
+            }
+            this.values.putAll(values);
+        }
+    }
+
+    void restoreClosedCount(long count) {
+        closedCount = count;
+    }
+
+    /**
+     * Forget state of the previous run, see {@link Cursor#reset()}.
+     */
+    void reset() {
+        depth = 1;
+        active = false;
+        closedCount = 0;
+        valueLength = 0;
+        valuePending = false;
+        attachment = null;
+        parent = null;
+        Arrays.fill(slots, null);
+        if (values != null) {
+            values.clear();
+        }
+        if (batch != null) {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Pass collected records to the batch consumer.
+     */
+    /**
+     * Pass the batch to the consumer if its time limit has passed.
+     *
+     * @param now current {@link System#nanoTime()}
+     */
+    void flushExpiredBatch(long now) {
+        if (batchDelay > 0 && batch != null && !batch.isEmpty() && now - batchStarted >= batchDelay) {
+            flushBatch();
+        }
+    }
+
+    void flushBatch() {
+        if (batch != null && !batch.isEmpty()) {
+            try {
+                batchConsumer.accept(batchView);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Keep a property value: in its slot for run-time copies, in the map for handlers used without compilation.
+     */
+    private void store(int slot, String key, String value) {
+        if (slots != null) {
+            slots[slot] = value;
+        } else {
+            if (values == null) {
+                values = new HashMap<>();
+            }
+            values.put(key, value);
+        }
+    }
+
     @Override
     public int down() {
         return ++depth;
@@ -327,6 +1181,14 @@ public class Handler extends RootHandler {
 
     @Override
     public boolean needAttributes() {
-        return attributed;
+        return attributed || attributesConsumer != null;
+    }
+
+    /**
+     * Text of nested elements goes to the text consumer of the handler, so their events can not be skipped.
+     */
+    @Override
+    public boolean canSkip() {
+        return textConsumer == null && charsConsumer == null && valueConsumer == null && !propagating && !scoped();
     }
 }
@@ -0,0 +1,74 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Slots of the properties a handler can hold.
+ * <p>Everything a handler can get through {@link Handler#propagate()} and {@link Handler#withAttributes(String...)}
+ * is known when the graph is compiled, so run-time copies of the handler keep the values in an array.
+ * Moving values to the parent is then a copy between arrays by precomputed indexes.</p>
+ */
+final class Layout {
+    static final int NONE = -1;
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    /**
+     * Number of the layout, layouts of a plan get consecutive numbers.
+     */
+    final int id = IDS.getAndIncrement();
+
+    /**
+     * Property names by slot. Own text of the handler has {@code null} name.
+     */
+    final String[] keys;
+    private final Map<String, Integer> slots;
+    final int textSlot;
+    final int[] attributeSlots;
+    /**
+     * Set if some properties can not be known in advance, see {@link Handler#withAttributes()}.
+     */
+    final boolean dynamic;
+    /**
+     * Slots of the parent layout to move the values to, {@code null} if the parent keeps no properties.
+     */
+    int[] parentSlots;
+
+    Layout(String[] keys, Map<String, Integer> slots, int textSlot, int[] attributeSlots, boolean dynamic) {
+        this.keys = keys;
+        this.slots = slots;
+        this.textSlot = textSlot;
+        this.attributeSlots = attributeSlots;
+        this.dynamic = dynamic;
+    }
+
+    /**
+     * Find slot of a property.
+     *
+     * @param name property name
+     * @return slot or {@link #NONE}
+     */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? NONE : slot;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.Map;
+
+
+/**
+ * Attribute view over a map, for backends which can only provide attributes as a map.
+ */
+final class MapAttributes implements Attributes {
+    private final Map<String, String> map;
+    private final String[] names;
+
+    MapAttributes(Map<String, String> map) {
+        this.map = map;
+        this.names = map.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public String name(int index) {
+        return names[index];
+    }
+
+    @Override
+    public String value(int index) {
+        return map.get(names[index]);
+    }
+
+    @Override
+    public String get(String name) {
+        return map.get(name);
+    }
+
+    @Override
+    public Map<String, String> toMap() {
+        return map;
+    }
+}
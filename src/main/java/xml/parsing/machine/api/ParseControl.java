@@ -0,0 +1,80 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+
+/**
+ * Stops a running parse.
+ * <p>Every parser has its control, see {@link AbstractXmlEngine#control()}. Callbacks of a compiled graph
+ * get it through {@link Handler#control()}, so a consumer can end the parse when it has what it needs:</p>
+ * <pre>
+ *     .close(book -&gt; {
+ *         if (id.equals(book.getProperty("@id"))) {
+ *             found.set(book.getProperty("title"));
+ *             book.control().stop();
+ *         }
+ *     })
+ * </pre>
+ * <p>The parser checks the control after every event, so no more callbacks are made once the current one
+ * returns. Handlers of elements which are still open are not closed. The control is thread-safe and can be
+ * used to cancel a parse running in another thread. A stop requested before the parse starts ends it before
+ * the first event; a stop that has ended a parse does not affect the next one.</p>
+ */
+public final class ParseControl {
+    private volatile boolean stopped;
+    /**
+     * The stop has ended a run, so the next run starts afresh.
+     */
+    private boolean spent;
+
+    /**
+     * Request the parser to stop.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        spent = false;
+    }
+
+    /**
+     * Tells whether the parse has been stopped.
+     *
+     * @return {@code true} after {@link #stop()} until the next parse starts
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Called when a run ends.
+     */
+    synchronized void spend() {
+        spent = stopped;
+    }
+
+    /**
+     * Called when a run starts: drops the stop which has ended the previous run, but not a stop
+     * requested after it.
+     */
+    synchronized void reset() {
+        if (spent) {
+            stopped = false;
+            spent = false;
+        }
+    }
+}
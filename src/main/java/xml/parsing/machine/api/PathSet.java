@@ -0,0 +1,214 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Builds a handler graph from path expressions.
+ * <p>Paths with common prefixes share handlers, so the graph is a trie and a single pass over the document
+ * serves all the paths. The cost of an element depends on the handlers that are active at the moment,
+ * not on the number of paths.</p>
+ * <pre>
+ *     RootHandler root = new PathSet()
+ *         .add("library/book/@id", ids::add)
+ *         .add("library/book/title", titles::add)
+ *         .add("library/book/author", authors::add)
+ *         .build();
+ *     parser.read(root);
+ * </pre>
+ * <p>A path is a list of element names separated with {@code /}. The last step can be an attribute:
+ * {@code @name}. The leading {@code /} is optional. {@code //name} matches the element at any depth
+ * (see {@link RootHandler#descendant(String)}) and {@code *} matches a child of any name
+ * (see {@link RootHandler#any()}): {@code //book/price}, <code>library/&#42;/title</code>.</p>
+ */
+public final class PathSet {
+    private static final String DESCENDANT = "//";
+    private final Node root = new Node(null);
+
+    /**
+     * Adds a path to extract.
+     * <p>Text of an element path goes to the consumer the same way as in {@link Handler#text(Consumer)}.
+     * For attribute path the consumer gets the value of the attribute; elements without the attribute
+     * are ignored.</p>
+     *
+     * @param path path of element or attribute
+     * @param consumer function that processes values
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public PathSet add(String path, Consumer<String> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        List<String> steps = parse(path);
+        String last = steps.get(steps.size() - 1);
+        if (last.charAt(0) == '@') {
+            Node node = walk(steps.subList(0, steps.size() - 1), path);
+            node.attributes.computeIfAbsent(last.substring(1), k -> new ArrayList<>()).add(consumer);
+        } else {
+            walk(steps, path).text.add(consumer);
+        }
+        return this;
+    }
+
+    /**
+     * Adds an action to take when an element completes, see {@link Handler#close(Consumer)}.
+     * <p>Attributes of the element requested with {@link PathSet#add(String, Consumer)} are available
+     * as properties of the handler.</p>
+     *
+     * @param path path of element
+     * @param consumer action
+     * @return {@code this} that allows to continue the pipeline
+     */
+    public PathSet close(String path, Consumer<Handler> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        List<String> steps = parse(path);
+        if (steps.get(steps.size() - 1).charAt(0) == '@') {
+            throw new IllegalArgumentException("Path must point to an element: " + path);
+        }
+        walk(steps, path).close.add(consumer);
+        return this;
+    }
+
+    /**
+     * Creates a new handler graph for the paths. The graph can be extended or compiled
+     * with {@link RootHandler#compile()} as usual.
+     *
+     * @return root of the graph
+     */
+    public RootHandler build() {
+        if (root.children.isEmpty()) {
+            throw new IllegalStateException("No paths to build");
+        }
+        RootHandler result = RootHandler.instance();
+        for (Node child : root.children.values()) {
+            child.build(child.attach(result));
+        }
+        return result;
+    }
+
+    private static List<String> parse(String path) {
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("Path must not be empty");
+        }
+        List<String> steps = new ArrayList<>();
+        int start = path.startsWith("/") && !path.startsWith(DESCENDANT) ? 1 : 0;
+        while (true) {
+            boolean descendant = path.startsWith(DESCENDANT, start);
+            if (descendant) {
+                start += DESCENDANT.length();
+            }
+            int end = path.indexOf('/', start);
+            String step = end < 0 ? path.substring(start) : path.substring(start, end);
+            if (step.isEmpty()) {
+                throw new IllegalArgumentException("Empty step in path " + path);
+            }
+            if (step.indexOf('*') >= 0 && (descendant || step.length() > 1)) {
+                throw new IllegalArgumentException("Wildcard must be a whole child step: " + path);
+            }
+            if (step.charAt(0) == '@' && (end >= 0 || descendant || step.length() == 1)) {
+                throw new IllegalArgumentException("Attribute must be the last step of a path: " + path);
+            }
+            steps.add(descendant ? DESCENDANT + step : step);
+            if (end < 0) {
+                return steps;
+            }
+            start = path.startsWith(DESCENDANT, end) ? end : end + 1;
+        }
+    }
+
+    private Node walk(List<String> steps, String path) {
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("Path must contain an element: " + path);
+        }
+        Node node = root;
+        for (String step : steps) {
+            node = node.children.computeIfAbsent(step, Node::new);
+        }
+        return node;
+    }
+
+    /**
+     * Element of the trie.
+     */
+    private static final class Node {
+        final String token;
+        final Map<String, Node> children = new LinkedHashMap<>();
+        final List<Consumer<String>> text = new ArrayList<>();
+        final Map<String, List<Consumer<String>>> attributes = new LinkedHashMap<>();
+        final List<Consumer<Handler>> close = new ArrayList<>();
+
+        Node(String token) {
+            this.token = token;
+        }
+
+        void build(Handler handler) {
+            if (!text.isEmpty()) {
+                handler.text(combine(text));
+            }
+            if (!attributes.isEmpty()) {
+                String[] names = attributes.keySet().toArray(new String[0]);
+                List<Consumer<String>> consumers = new ArrayList<>(names.length);
+                for (String name : names) {
+                    consumers.add(combine(attributes.get(name)));
+                }
+                handler.withAttributes(names).attributes(a -> {
+                    for (int i = 0; i < names.length; i++) {
+                        String value = a.get(names[i]);
+                        if (value != null) {
+                            consumers.get(i).accept(value);
+                        }
+                    }
+                });
+            }
+            if (!close.isEmpty()) {
+                handler.close(combine(close));
+            }
+            for (Node child : children.values()) {
+                child.build(child.attach(handler));
+            }
+        }
+
+        Handler attach(RootHandler parent) {
+            if (token.startsWith(DESCENDANT)) {
+                return parent.descendant(token.substring(DESCENDANT.length()));
+            }
+            return Handler.ANY.equals(token) ? parent.any() : parent.then(token);
+        }
+
+        private static <T> Consumer<T> combine(List<Consumer<T>> consumers) {
+            if (consumers.size() == 1) {
+                return consumers.get(0);
+            }
+            List<Consumer<T>> all = new ArrayList<>(consumers);
+            return value -> {
+                for (int i = 0; i < all.size(); i++) {
+                    all.get(i).accept(value);
+                }
+            };
+        }
+    }
+}
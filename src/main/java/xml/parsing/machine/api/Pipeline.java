@@ -0,0 +1,242 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Runs record processing in parallel with parsing.
+ * <p>The parse thread only takes snapshots of completed records (see {@link Handler#snapshot()}) and hands
+ * them to the executor, so expensive processing does not stall parsing. At most {@code capacity} records
+ * are in flight: when the workers fall behind, the parse thread waits. Any executor fits, e.g. a fixed
+ * thread pool or a virtual-thread-per-task executor on JDKs that have one.</p>
+ * <pre>
+ *     new Pipeline(pool, 1024).ordered(true).read(parser, plan, "book", Enricher::enrich, writer::write);
+ * </pre>
+ * <p>Workers run concurrently. Their results go to the sink one at a time, in document order if the pipeline
+ * is {@link #ordered(boolean)}: a reorder buffer of {@code capacity} entries holds results which are ready
+ * before their predecessors. The first failure of a worker or the sink stops the parse; it is rethrown
+ * by {@code read()} once the records in flight are done.</p>
+ */
+public final class Pipeline {
+    private final Executor executor;
+    private final int capacity;
+    private boolean ordered;
+
+    /**
+     * @param executor runs the workers
+     * @param capacity maximum number of records in flight
+     */
+    public Pipeline(Executor executor, int capacity) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Defines whether results reach the sink in document order.
+     *
+     * @param ordered {@code true} to keep document order
+     * @return {@code this}
+     */
+    public Pipeline ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Parse the document and process every record by the consumer in the executor.
+     *
+     * @param parser parser of the document
+     * @param plan compiled graph
+     * @param record name of record element
+     * @param consumer processes records
+     */
+    public void read(AbstractXmlParser parser, Plan plan, String record, Consumer<? super Snapshot> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        read(parser, plan, record, snapshot -> {
+            consumer.accept(snapshot);
+            return null;
+        }, result -> { });
+    }
+
+    /**
+     * Parse the document, transform every record by the worker in the executor and pass the results to the sink.
+     *
+     * @param parser parser of the document
+     * @param plan compiled graph
+     * @param record name of record element
+     * @param worker transforms records, called concurrently
+     * @param sink receives results, one call at a time
+     * @param <R> type of results
+     */
+    public <R> void read(AbstractXmlParser parser, Plan plan, String record,
+                         Function<? super Snapshot, ? extends R> worker, Consumer<? super R> sink) {
+        if (parser == null) {
+            throw new IllegalArgumentException("Parser must not be null");
+        }
+        if (worker == null || sink == null) {
+            throw new IllegalArgumentException("Worker and sink must not be null");
+        }
+        Run<R> run = new Run<>(parser, worker, sink);
+        try {
+            parser.read(plan, record, handler -> run.submit(handler.snapshot()));
+        } finally {
+            run.await();
+        }
+        run.rethrow();
+    }
+
+    /**
+     * State of a single {@code read()}.
+     */
+    private final class Run<R> {
+        private final AbstractXmlParser parser;
+        private final Function<? super Snapshot, ? extends R> worker;
+        private final Consumer<? super R> sink;
+        private final Semaphore permits = new Semaphore(capacity);
+        private final Object lock = new Object();
+        private final Object[] results;
+        private final boolean[] ready;
+        private long submitted;
+        private long delivered;
+        private volatile Throwable failure;
+
+        Run(AbstractXmlParser parser, Function<? super Snapshot, ? extends R> worker, Consumer<? super R> sink) {
+            this.parser = parser;
+            this.worker = worker;
+            this.sink = sink;
+            results = ordered ? new Object[capacity] : null;
+            ready = ordered ? new boolean[capacity] : null;
+        }
+
+        void submit(Snapshot snapshot) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+                return;
+            }
+            long sequence = submitted++;
+            try {
+                executor.execute(() -> process(sequence, snapshot));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                fail(e);
+            }
+        }
+
+        private void process(long sequence, Snapshot snapshot) {
+            R result = null;
+            boolean success = false;
+            if (failure == null) {
+                try {
+                    result = worker.apply(snapshot);
+                    success = true;
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+            if (ordered) {
+                deliverInOrder(sequence, result, success);
+            } else {
+                if (success) {
+                    synchronized (lock) {
+                        deliver(result);
+                    }
+                }
+                permits.release();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliverInOrder(long sequence, R result, boolean success) {
+            synchronized (lock) {
+                int slot = (int) (sequence % capacity);
+                results[slot] = success ? result : this;
+                ready[slot] = true;
+                slot = (int) (delivered % capacity);
+                while (ready[slot]) {
+                    Object next = results[slot];
+                    results[slot] = null;
+                    ready[slot] = false;
+                    delivered++;
+                    if (next != this) {
+                        deliver((R) next);
+                    }
+                    permits.release();
+                    slot = (int) (delivered % capacity);
+                }
+            }
+        }
+
+        private void deliver(R result) {
+            if (failure == null) {
+                try {
+                    sink.accept(result);
+                } catch (Throwable e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void fail(Throwable e) {
+            synchronized (lock) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            parser.cancel();
+        }
+
+        void await() {
+            permits.acquireUninterruptibly(capacity);
+            permits.release(capacity);
+        }
+
+        void rethrow() {
+            Throwable e = failure;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            if (e != null) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
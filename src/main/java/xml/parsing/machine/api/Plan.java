@@ -0,0 +1,234 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntBinaryOperator;
+
+
+/**
+ * Compiled handler graph.
+ * <p>The plan is immutable and thread-safe: it can be built once, cached and passed to any number
+ * of parsers running concurrently. All the parsing state lives in a cursor created for every
+ * {@link AbstractXmlParser#read(Plan)}.</p>
+ * <pre>
+ *     Plan plan = RootHandler.instance("library", r -&gt; r.then("book")...).compile();
+ *     // in any thread
+ *     new StaxParser(reader).read(plan);
+ * </pre>
+ */
+public final class Plan {
+    private final RootHandler[] nodes;
+    private final SymbolTable symbols;
+    private final int fingerprint;
+    private final IntBinaryOperator transitions;
+    /**
+     * The plan built from the graph, the one {@link #tabulate()} starts from.
+     */
+    private final Plan base;
+    private Plan tabulated;
+
+    Plan(RootHandler root) {
+        transitions = null;
+        base = this;
+        List<RootHandler> nodes = new ArrayList<>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            RootHandler node = nodes.get(i);
+            node.index = i;
+            node.compiled = true;
+            nodes.addAll(node.nodes());
+        }
+        this.nodes = nodes.toArray(new RootHandler[0]);
+        Map<String, Integer> tokens = new LinkedHashMap<>();
+        for (int i = 1; i < this.nodes.length; i++) {
+            String token = ((Handler) this.nodes[i]).token();
+            if (!Handler.ANY.equals(token) && !tokens.containsKey(token)) {
+                tokens.put(token, tokens.size());
+            }
+        }
+        List<String> namespaces = new ArrayList<>();
+        for (int i = 1; i < this.nodes.length; i++) {
+            String namespace = ((Handler) this.nodes[i]).namespace();
+            if (namespace != null && !namespaces.contains(namespace)) {
+                namespaces.add(namespace);
+            }
+        }
+        symbols = new SymbolTable(tokens.keySet(), namespaces);
+        for (RootHandler node : this.nodes) {
+            Handler[] children = node.children().toArray(new Handler[0]);
+            boolean namespaced = false;
+            for (Handler child : children) {
+                if (child.namespace() != null) {
+                    child.namespaceId = symbols.namespace(child.namespace());
+                    namespaced = true;
+                }
+            }
+            Arrays.sort(children, Comparator.<Handler>comparingInt(child -> tokens.get(child.token()))
+                    .thenComparingInt(child -> child.namespaceId));
+            node.childSymbols = new int[children.length];
+            for (int i = 0; i < children.length; i++) {
+                node.childSymbols[i] = tokens.get(children[i].token());
+            }
+            node.childTemplates = children;
+            if (namespaced) {
+                node.childNamespaces = new int[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    node.childNamespaces[i] = children[i].namespaceId;
+                }
+            }
+        }
+        // parents precede children, so the scope of the parent is ready when its nodes inherit it
+        for (RootHandler node : this.nodes) {
+            if (!node.descendants().isEmpty()) {
+                Map<String, Handler> scope = node.scope == null ? new HashMap<>() : new HashMap<>(node.scope);
+                scope.putAll(node.descendants());
+                node.scope = scope;
+                Handler[] templates = scope.values().toArray(new Handler[0]);
+                Arrays.sort(templates, Comparator.comparingInt(template -> tokens.get(template.token())));
+                node.scopeTemplates = templates;
+                node.scopeSymbols = new int[templates.length];
+                for (int i = 0; i < templates.length; i++) {
+                    node.scopeSymbols[i] = tokens.get(templates[i].token());
+                }
+            }
+            for (Handler nested : node.nodes()) {
+                nested.scope = node.scope;
+                nested.scopeSymbols = node.scopeSymbols;
+                nested.scopeTemplates = node.scopeTemplates;
+            }
+        }
+        for (int i = this.nodes.length - 1; i > 0; i--) {
+            ((Handler) this.nodes[i]).layout();
+        }
+        int hash = this.nodes.length;
+        for (RootHandler node : this.nodes) {
+            if (node instanceof Handler) {
+                hash = 31 * hash + ((Handler) node).token().hashCode();
+                hash = 31 * hash + Objects.hashCode(((Handler) node).namespace());
+            }
+            hash = 31 * hash + node.nodes().size();
+        }
+        fingerprint = hash;
+    }
+
+    private Plan(Plan plan, IntBinaryOperator transitions) {
+        this.nodes = plan.nodes;
+        this.symbols = plan.symbols;
+        this.fingerprint = plan.fingerprint;
+        this.transitions = transitions;
+        this.base = plan;
+    }
+
+    /**
+     * Get the same plan finding child handlers in a table.
+     * <p>The table has a row per handler and a column per element name, so matching a child element is
+     * a single array read instead of a search, whatever the number of children. Only the child lookup changes:
+     * events still go through the stack of handlers and their run-time copies, and callbacks are called
+     * the same way. The table takes {@code size() * symbols().size()} integers, which suits graphs of moderate
+     * size with many children per handler; a graph whose table would be larger than 4 MB is returned as it is.
+     * The results are the same, and the state taken at checkpoints can be restored by either plan.</p>
+     *
+     * @return plan with the table, the same for every call
+     */
+    public Plan tabulate() {
+        Plan base = this.base;
+        synchronized (base) {
+            if (base.tabulated == null) {
+                TransitionTable table = TransitionTable.build(nodes, symbols.size());
+                base.tabulated = table == null ? base : new Plan(base, table);
+            }
+            return base.tabulated;
+        }
+    }
+
+    /**
+     * @return child lookup, see {@link #tabulate()}, or {@code null}
+     */
+    IntBinaryOperator transitions() {
+        return transitions;
+    }
+
+    RootHandler node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Hash of the graph structure, the same for plans built the same way.
+     *
+     * @return hash of element names and shape of the graph
+     */
+    int fingerprint() {
+        return fingerprint;
+    }
+
+    RootHandler root() {
+        return nodes[0];
+    }
+
+    /**
+     * Find handlers of the given element.
+     *
+     * @param token element name
+     * @return flags indexed by node position
+     */
+    boolean[] select(String token) {
+        boolean[] selected = new boolean[nodes.length];
+        boolean found = false;
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] instanceof Handler && ((Handler) nodes[i]).token().equals(token)) {
+                selected[i] = true;
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new IllegalArgumentException("Plan has no handler of element " + token);
+        }
+        return selected;
+    }
+
+    /**
+     * Element names handled by the graph.
+     *
+     * @return symbol table shared by all runs of the plan
+     */
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Number of handlers in the graph including the root.
+     *
+     * @return size of the graph
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    Cursor newCursor(ParseControl control) {
+        return new Cursor(this, control);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+
+/**
+ * Handle of a handler property.
+ * <p>{@link Handler#getProperty(String)} looks the name up on every call. A handle remembers where the value
+ * is kept, so the lookup is done once per plan rather than once per record:</p>
+ * <pre>
+ *     Property title = Property.of("title");
+ *     RootHandler.instance("library", r -&gt; r.then("book")
+ *         .or("title", Handler::propagate)
+ *         .close(book -&gt; titles.add(book.getProperty(title))));
+ * </pre>
+ * <p>Handles are thread-safe and can be shared between plans.</p>
+ */
+public final class Property {
+    /**
+     * Number of layouts a handle remembers, a power of two.
+     */
+    private static final int CACHE_SIZE = 8;
+
+    private final String name;
+    /**
+     * Slots found in recent layouts by {@link Layout#id}. Entries are immutable, so a race only repeats a lookup.
+     */
+    private final Binding[] bindings = new Binding[CACHE_SIZE];
+
+    private Property(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create a handle.
+     *
+     * @param name property name, see {@link Handler#getProperty(String)}
+     * @return new handle
+     */
+    public static Property of(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Property name must not be empty");
+        }
+        return new Property(name);
+    }
+
+    /**
+     * @return property name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Find slot of the property in a layout. Slots are cached per layout, so a handle read from handlers
+     * of a few different layouts in turn finds each slot once.
+     *
+     * @param layout layout of the handler
+     * @return slot or {@link Layout#NONE}
+     */
+    int slot(Layout layout) {
+        int i = layout.id & (CACHE_SIZE - 1);
+        Binding binding = bindings[i];
+        if (binding == null || binding.layout != layout) {
+            binding = new Binding(layout, layout.slot(name));
+            bindings[i] = binding;
+        }
+        return binding.slot;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Binding {
+        final Layout layout;
+        final int slot;
+
+        Binding(Layout layout, int slot) {
+            this.layout = layout;
+            this.slot = slot;
+        }
+    }
+}
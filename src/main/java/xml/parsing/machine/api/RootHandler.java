@@ -18,13 +18,58 @@ under the License.
  */
 package xml.parsing.machine.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import javax.xml.namespace.QName;
+
+/**
+ * Root of a handler graph.
+ * <p>The graph is built with {@link #then(String)} and {@link Handler#or(String, Consumer)} and then frozen
+ * by {@link #compile()} into a {@link Plan}. Nodes of a compiled graph are templates: they are never changed
+ * by parsing, every run works with its own copies of the nodes. So a plan can be cached and shared
+ * by concurrent parsers. Callbacks receive the run-time copy of the node, not the template.</p>
+ */
 public class RootHandler implements XmlNodeHandler {
     private Map<String, Handler> children = null;
+    private Map<String, Handler> descendants = null;
+    private Handler wildcard = null;
+    /**
+     * Position of the node in the compiled plan.
+     */
+    int index;
+    /**
+     * Set for every node of a compiled graph.
+     */
+    boolean compiled;
+    /**
+     * Owner of a run-time copy, {@code null} for templates.
+     */
+    final Cursor cursor;
+    /**
+     * Sorted symbols of children and their templates, set when the graph is compiled.
+     */
+    int[] childSymbols;
+    Handler[] childTemplates;
+    /**
+     * Namespace identifiers of children, {@code null} if no child is bound to a namespace.
+     */
+    int[] childNamespaces;
+    /**
+     * Descendant handlers of the node and its ancestors, set when the graph is compiled.
+     * {@code null} when there are none.
+     */
+    Map<String, Handler> scope;
+    int[] scopeSymbols;
+    Handler[] scopeTemplates;
+    private Plan plan;
 
     /**
      * Constructs a new handler which handles root item of xml file.
@@ -73,26 +118,281 @@ public class RootHandler implements XmlNodeHandler {
      * @return      the created handler so you can build a pipeline
      */
     public Handler then(String token) {
-        Handler nextHandler = new Handler(token);
+        return add(token, new Handler(token));
+    }
+
+    /**
+     * Defines a handler of nested element of the given namespace. Unlike {@link #then(String)}, which matches
+     * elements by local name in any namespace, the handler matches only elements of the namespace.
+     * An empty namespace URI means elements without namespace. Properties of the handler are propagated
+     * under the local name.
+     * <p>Namespace URIs are resolved once when the graph is compiled; a parser resolves the namespace
+     * of an element only if the graph has such handlers. They are matched only by a compiled graph,
+     * see {@link #compile()}.</p>
+     *
+     * @param name qualified name of element to search
+     * @return      the created handler so you can build a pipeline
+     */
+    public Handler then(QName name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null");
+        }
+        return add(name.toString(), new Handler(name.getLocalPart(), name.getNamespaceURI()));
+    }
+
+    private Handler add(String key, Handler nextHandler) {
+        checkNotCompiled();
         if (children == null) {
             children = new HashMap<>();
         }
-        if (children.put(token, nextHandler) != null) {
+        if (children.put(key, nextHandler) != null) {
             throw new IllegalArgumentException("This element name already has a handler");
         }
         return nextHandler;
     }
 
-    protected RootHandler() {}
+    /**
+     * Defines a handler of element at any depth below this one. For example, all {@code price} elements of
+     * a catalog no matter how deeply they are nested:
+     * <pre>
+     *     RootHandler.instance("catalog", c -&gt; c.descendant("price").text(prices::add));
+     * </pre>
+     * <p>A direct child handler defined with {@link #then(String)} takes precedence over the descendant one.
+     * If the element is nested in another element of the same descendant handler, it is a part of that
+     * element and is not matched again. Propagated values go to this handler rather than to the closest
+     * active one.</p>
+     *
+     * @param token name of element to search
+     * @return      the created handler so you can build a pipeline
+     */
+    public Handler descendant(String token) {
+        checkNotCompiled();
+        Handler nextHandler = new Handler(token);
+        if (descendants == null) {
+            descendants = new HashMap<>();
+        }
+        if (descendants.put(token, nextHandler) != null) {
+            throw new IllegalArgumentException("This element name already has a descendant handler");
+        }
+        nextHandler.owner = this;
+        return nextHandler;
+    }
+
+    /**
+     * Defines a handler of child elements of any name which have no handler of their own,
+     * see {@link #then(String)}. Its properties are propagated under {@code *} name.
+     *
+     * @return      the created handler so you can build a pipeline
+     */
+    public Handler any() {
+        checkNotCompiled();
+        if (wildcard != null) {
+            throw new IllegalStateException("Duplicate call of any()");
+        }
+        wildcard = new Handler(Handler.ANY);
+        return wildcard;
+    }
+
+    /**
+     * Freezes the graph into a plan which can be shared by concurrent parsers.
+     * <p>The graph can not be changed after the call. Repeated calls return the same plan.
+     * {@link AbstractXmlParser#read(XmlNodeHandler)} compiles the graph implicitly.</p>
+     *
+     * @return compiled graph
+     */
+    public synchronized Plan compile() {
+        if (cursor != null) {
+            throw new IllegalStateException("Run-time copy of a handler can not be compiled");
+        }
+        if (this instanceof Handler) {
+            throw new IllegalStateException("Only root of the graph can be compiled");
+        }
+        if (plan == null) {
+            plan = new Plan(this);
+        }
+        return plan;
+    }
+
+    protected RootHandler() {
+        this.cursor = null;
+    }
+
+    /**
+     * Creates a run-time copy of a template.
+     *
+     * @param template compiled node
+     * @param cursor owner of the copy
+     */
+    RootHandler(RootHandler template, Cursor cursor) {
+        this.cursor = cursor;
+        this.children = template.children;
+        this.index = template.index;
+        this.compiled = true;
+        this.childSymbols = template.childSymbols;
+        this.childTemplates = template.childTemplates;
+        this.childNamespaces = template.childNamespaces;
+        this.descendants = template.descendants;
+        this.wildcard = template.wildcard;
+        this.scope = template.scope;
+        this.scopeSymbols = template.scopeSymbols;
+        this.scopeTemplates = template.scopeTemplates;
+    }
+
+    RootHandler copy(Cursor cursor) {
+        return new RootHandler(this, cursor);
+    }
+
+    Collection<Handler> children() {
+        return children == null ? Collections.<Handler>emptyList() : children.values();
+    }
+
+    /**
+     * All the nodes below this one in the graph: children, the wildcard and descendants.
+     *
+     * @return nested nodes
+     */
+    Collection<Handler> nodes() {
+        if (descendants == null && wildcard == null) {
+            return children();
+        }
+        List<Handler> nodes = new ArrayList<>(children());
+        if (wildcard != null) {
+            nodes.add(wildcard);
+        }
+        if (descendants != null) {
+            nodes.addAll(descendants.values());
+        }
+        return nodes;
+    }
+
+    Map<String, Handler> descendants() {
+        return descendants == null ? Collections.<String, Handler>emptyMap() : descendants;
+    }
+
+    /**
+     * Tells if elements below the active level can match a descendant handler.
+     *
+     * @return {@code true} when the node or its ancestors have descendant handlers
+     */
+    boolean scoped() {
+        return scope != null;
+    }
+
+    void checkNotCompiled() {
+        if (compiled) {
+            throw new IllegalStateException("Handler graph is compiled and can not be changed");
+        }
+    }
 
     @Override
     public XmlNodeHandler onStartElement(String name) {
-        Handler next = children.get(name);
-        if (next == null) {
-            return this;
+        Handler next = children == null ? null : children.get(name);
+        if (next != null) {
+            return enter(next);
+        }
+        if (wildcard != null) {
+            return enter(wildcard);
+        }
+        XmlNodeHandler nested = nested(name);
+        return nested == null ? this : nested;
+    }
+
+    /**
+     * The same as {@link #onStartElement(String)} for a compiled graph.
+     *
+     * @param symbol symbol of the element name, see {@link Plan#symbols()}
+     * @param namespace identifier of the element namespace, see {@link SymbolTable#namespace(String)}
+     * @return handler of the element
+     */
+    XmlNodeHandler onStartElement(int symbol, int namespace) {
+        int i;
+        if (symbol == SymbolTable.UNKNOWN) {
+            i = -1;
+        } else if (cursor != null && cursor.transitions != null) {
+            i = cursor.transitions.applyAsInt(index, symbol);
+        } else {
+            i = Arrays.binarySearch(childSymbols, symbol);
+        }
+        if (i >= 0 && childNamespaces != null) {
+            i = matchNamespace(i, symbol, namespace);
+        }
+        if (i >= 0) {
+            return enter(childTemplates[i]);
+        }
+        if (wildcard != null) {
+            return enter(wildcard);
+        }
+        XmlNodeHandler nested = nested(symbol);
+        return nested == null ? this : nested;
+    }
+
+    /**
+     * Pick a child among the ones of the same local name bound to different namespaces.
+     *
+     * @param found index of any child of the name
+     * @param symbol symbol of the name
+     * @param namespace namespace of the element
+     * @return index of the child bound to the namespace, or else of the child of any namespace, or -1
+     */
+    private int matchNamespace(int found, int symbol, int namespace) {
+        int i = found;
+        while (i > 0 && childSymbols[i - 1] == symbol) {
+            i--;
+        }
+        int any = -1;
+        for (; i < childSymbols.length && childSymbols[i] == symbol; i++) {
+            if (childNamespaces[i] == namespace) {
+                return i;
+            }
+            if (childNamespaces[i] == Handler.ANY_NAMESPACE) {
+                any = i;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Match an element nested at any depth against descendant handlers in scope.
+     *
+     * @param name element name
+     * @return handler of the element or {@code null}
+     */
+    XmlNodeHandler nested(String name) {
+        if (scope == null) {
+            return null;
+        }
+        Handler next = scope.get(name);
+        return next == null ? null : enterNested(next);
+    }
+
+    /**
+     * The same as {@link #nested(String)} for a compiled graph.
+     *
+     * @param symbol symbol of the element name
+     * @return handler of the element or {@code null}
+     */
+    XmlNodeHandler nested(int symbol) {
+        if (scopeSymbols == null || symbol == SymbolTable.UNKNOWN) {
+            return null;
+        }
+        int i = Arrays.binarySearch(scopeSymbols, symbol);
+        return i < 0 ? null : enterNested(scopeTemplates[i]);
+    }
+
+    private Handler enterNested(Handler next) {
+        if (cursor != null) {
+            next = cursor.frame(next);
+        }
+        return next.active ? null : enter(next);
+    }
+
+    private Handler enter(Handler next) {
+        if (cursor != null) {
+            next = cursor.frame(next);
         }
         next.active = true;
         next.depth = 1;
+        next.parent = this instanceof Handler ? (Handler) this : null;
         if (next.startConsumer != null) {
             next.startConsumer.accept(next);
         }
@@ -130,4 +430,9 @@ public class RootHandler implements XmlNodeHandler {
     public boolean needAttributes() {
         return false;
     }
+
+    @Override
+    public boolean canSkip() {
+        return scope == null;
+    }
 }
@@ -0,0 +1,168 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * State of a run of a {@link Plan} between two events: the stack of active handlers with their depth and
+ * collected properties, and the counters of {@link Handler#stopAfter(long)}.
+ * <p>Taken by parsers which can continue the run later from the same point of the input, see
+ * {@link AbstractXmlEngine#checkpoint(RunState)}. The state can be resumed only with the plan it was taken from
+ * or with a plan built the same way.</p>
+ */
+public final class RunState {
+    private static final int MAGIC = 0x584d5253;
+
+    final int fingerprint;
+    final long records;
+    final int[] indexes;
+    final int[] depths;
+    final String[][] slots;
+    final List<Map<String, String>> values;
+    final int[] counted;
+    final long[] counts;
+
+    RunState(int fingerprint, long records, int[] indexes, int[] depths, String[][] slots,
+            List<Map<String, String>> values, int[] counted, long[] counts) {
+        this.fingerprint = fingerprint;
+        this.records = records;
+        this.indexes = indexes;
+        this.depths = depths;
+        this.slots = slots;
+        this.values = values;
+        this.counted = counted;
+        this.counts = counts;
+    }
+
+    /**
+     * @return number of active handlers below the root
+     */
+    public int depth() {
+        return indexes.length;
+    }
+
+    /**
+     * Serialize the state.
+     *
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(fingerprint);
+        out.writeLong(records);
+        out.writeInt(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            out.writeInt(indexes[i]);
+            out.writeInt(depths[i]);
+            out.writeInt(slots[i].length);
+            for (String slot : slots[i]) {
+                writeString(out, slot);
+            }
+            Map<String, String> map = values.get(i);
+            if (map == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(map.size());
+                for (Map.Entry<String, String> entry : map.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+            }
+        }
+        out.writeInt(counted.length);
+        for (int i = 0; i < counted.length; i++) {
+            out.writeInt(counted[i]);
+            out.writeLong(counts[i]);
+        }
+    }
+
+    /**
+     * Read state written by {@link #write(DataOutput)}.
+     *
+     * @param in source
+     * @return state
+     * @throws IOException if reading fails or the data is not a state
+     */
+    public static RunState read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a parser state");
+        }
+        int fingerprint = in.readInt();
+        long records = in.readLong();
+        int size = in.readInt();
+        int[] indexes = new int[size];
+        int[] depths = new int[size];
+        String[][] slots = new String[size][];
+        List<Map<String, String>> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            indexes[i] = in.readInt();
+            depths[i] = in.readInt();
+            slots[i] = new String[in.readInt()];
+            for (int j = 0; j < slots[i].length; j++) {
+                slots[i][j] = readString(in);
+            }
+            int count = in.readInt();
+            Map<String, String> map = null;
+            if (count >= 0) {
+                map = new HashMap<>();
+                for (int j = 0; j < count; j++) {
+                    map.put(readString(in), readString(in));
+                }
+            }
+            values.add(map);
+        }
+        int[] counted = new int[in.readInt()];
+        long[] counts = new long[counted.length];
+        for (int i = 0; i < counted.length; i++) {
+            counted[i] = in.readInt();
+            counts[i] = in.readLong();
+        }
+        return new RunState(fingerprint, records, indexes, depths, slots, values, counted, counts);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
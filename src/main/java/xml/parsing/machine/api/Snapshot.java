@@ -0,0 +1,106 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Immutable copy of the properties of a handler, see {@link Handler#snapshot()}.
+ * <p>Unlike the handler, which is reused for the next element, a snapshot can be kept and passed
+ * to other threads.</p>
+ */
+public final class Snapshot {
+    private final String token;
+    private final Layout layout;
+    private final String[] slots;
+    private final Map<String, String> values;
+
+    Snapshot(String token, Layout layout, String[] slots, Map<String, String> values) {
+        this.token = token;
+        this.layout = layout;
+        this.slots = slots;
+        this.values = values;
+    }
+
+    /**
+     * @return name of the element the snapshot was taken of
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * Get property of the handler, see {@link Handler#getProperty(String)}.
+     *
+     * @param name property name
+     * @return value or {@code null} if the handler did not have the property
+     */
+    public String getProperty(String name) {
+        if (slots != null) {
+            int slot = layout.slot(name);
+            if (slot != Layout.NONE) {
+                return slots[slot];
+            }
+        }
+        return values == null ? null : values.get(name);
+    }
+
+    /**
+     * Get property by handle, see {@link Handler#getProperty(Property)}.
+     *
+     * @param property handle of the property
+     * @return value or {@code null} if the handler did not have the property
+     */
+    public String getProperty(Property property) {
+        if (property == null) {
+            throw new IllegalArgumentException("Property must not be null");
+        }
+        if (slots != null) {
+            int slot = property.slot(layout);
+            if (slot != Layout.NONE) {
+                return slots[slot];
+            }
+        }
+        return values == null ? null : values.get(property.name());
+    }
+
+    /**
+     * Copy all properties which have values.
+     *
+     * @return map of property name to value
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> result = values == null ? new HashMap<>() : new HashMap<>(values);
+        if (slots != null) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null && layout.keys[i] != null) {
+                    result.put(layout.keys[i], slots[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return token + toMap();
+    }
+}
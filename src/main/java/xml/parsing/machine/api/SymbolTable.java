@@ -0,0 +1,216 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Element names a compiled graph can match, numbered from 0.
+ * <p>Backends use the table to turn an element name into a symbol right from their input: the name is hashed
+ * in place and compared with the few candidates of the same hash and length. A name the graph does not know
+ * gives {@link #UNKNOWN} without ever becoming a {@code String}. Hashes are {@code 31 * h + c} over chars
+ * (the same as {@link String#hashCode()}) or over signed UTF-8 bytes.</p>
+ * <p>Namespace URIs of handlers registered with {@link RootHandler#then(javax.xml.namespace.QName)} are numbered
+ * separately, see {@link #namespace(String)}.</p>
+ * <p>The table is immutable and shared by all runs of a {@link Plan}.</p>
+ */
+public final class SymbolTable {
+    /**
+     * Symbol of names the graph does not handle.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final String[] names;
+    private final byte[][] utf8;
+    private final int mask;
+    private final int[] charBuckets;
+    private final int[] charNext;
+    private final int[] byteBuckets;
+    private final int[] byteHashes;
+    private final int[] byteNext;
+    private final Map<String, Integer> namespaces;
+
+    SymbolTable(Collection<String> names) {
+        this(names, Collections.<String>emptyList());
+    }
+
+    SymbolTable(Collection<String> names, Collection<String> namespaces) {
+        this.namespaces = new HashMap<>();
+        for (String namespace : namespaces) {
+            this.namespaces.putIfAbsent(namespace, this.namespaces.size());
+        }
+        this.names = names.toArray(new String[0]);
+        int size = this.names.length;
+        int capacity = 4;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        mask = capacity - 1;
+        utf8 = new byte[size][];
+        charBuckets = new int[capacity];
+        charNext = new int[size];
+        byteBuckets = new int[capacity];
+        byteHashes = new int[size];
+        byteNext = new int[size];
+        Arrays.fill(charBuckets, UNKNOWN);
+        Arrays.fill(byteBuckets, UNKNOWN);
+        for (int symbol = 0; symbol < size; symbol++) {
+            String name = this.names[symbol];
+            int bucket = name.hashCode() & mask;
+            charNext[symbol] = charBuckets[bucket];
+            charBuckets[bucket] = symbol;
+            utf8[symbol] = name.getBytes(StandardCharsets.UTF_8);
+            int hash = 0;
+            for (byte b : utf8[symbol]) {
+                hash = 31 * hash + b;
+            }
+            byteHashes[symbol] = hash;
+            bucket = hash & mask;
+            byteNext[symbol] = byteBuckets[bucket];
+            byteBuckets[bucket] = symbol;
+        }
+    }
+
+    /**
+     * @return number of symbols
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param symbol symbol
+     * @return element name of the symbol
+     */
+    public String name(int symbol) {
+        return names[symbol];
+    }
+
+    /**
+     * Tells if the graph has handlers of namespace qualified elements.
+     *
+     * @return {@code true} when parsers must resolve namespaces of elements
+     */
+    public boolean hasNamespaces() {
+        return !namespaces.isEmpty();
+    }
+
+    /**
+     * Find identifier of a namespace.
+     *
+     * @param uri namespace URI, empty for elements without namespace
+     * @return identifier or {@link #UNKNOWN}
+     */
+    public int namespace(String uri) {
+        Integer id = namespaces.get(uri);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * Find symbol of a name.
+     *
+     * @param name element name
+     * @return symbol or {@link #UNKNOWN}
+     */
+    public int lookup(String name) {
+        for (int symbol = charBuckets[name.hashCode() & mask]; symbol != UNKNOWN; symbol = charNext[symbol]) {
+            if (names[symbol].equals(name)) {
+                return symbol;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Find symbol of a name kept in a char array.
+     *
+     * @param chars array with the name
+     * @param start offset of the name
+     * @param length length of the name
+     * @return symbol or {@link #UNKNOWN}
+     */
+    public int lookup(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[start + i];
+        }
+        for (int symbol = charBuckets[hash & mask]; symbol != UNKNOWN; symbol = charNext[symbol]) {
+            String name = names[symbol];
+            if (name.length() == length && regionMatches(name, chars, start)) {
+                return symbol;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Find the first symbol which UTF-8 name has the given hash and length.
+     * <p>The candidate still has to be compared with the input, see {@link #utf8(int)}.
+     * Other candidates are listed by {@link #nextCandidate(int)}.</p>
+     *
+     * @param hash hash of UTF-8 bytes of the name
+     * @param length number of bytes in the name
+     * @return symbol or {@link #UNKNOWN}
+     */
+    public int firstCandidate(int hash, int length) {
+        return candidate(byteBuckets[hash & mask], hash, length);
+    }
+
+    /**
+     * Find the next symbol with the same UTF-8 hash and length.
+     *
+     * @param symbol previous candidate
+     * @return symbol or {@link #UNKNOWN}
+     */
+    public int nextCandidate(int symbol) {
+        return candidate(byteNext[symbol], byteHashes[symbol], utf8[symbol].length);
+    }
+
+    /**
+     * UTF-8 form of a name. The array must not be changed.
+     *
+     * @param symbol symbol
+     * @return bytes of the name
+     */
+    public byte[] utf8(int symbol) {
+        return utf8[symbol];
+    }
+
+    private int candidate(int symbol, int hash, int length) {
+        while (symbol != UNKNOWN && (byteHashes[symbol] != hash || utf8[symbol].length != length)) {
+            symbol = byteNext[symbol];
+        }
+        return symbol;
+    }
+
+    private static boolean regionMatches(String name, char[] chars, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
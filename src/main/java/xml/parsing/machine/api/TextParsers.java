@@ -0,0 +1,352 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+
+/**
+ * Parsers of typed values working right on the text buffer of the parser.
+ * <p>Leading and trailing whitespace is ignored. Lexical forms follow XML Schema: {@code true}, {@code false},
+ * {@code 1} and {@code 0} for booleans; {@code INF}, {@code -INF} and {@code NaN} for doubles;
+ * {@code yyyy-mm-dd[Thh:mm[:ss[.fff]]][Z|(+|-)hh:mm]} for timestamps, which are UTC if the zone is missing.
+ * Malformed values are reported by {@link #MALFORMED}, which carries no stack trace and is cheap to throw.</p>
+ */
+final class TextParsers {
+    static final Malformed MALFORMED = new Malformed();
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private TextParsers() {
+    }
+
+    static int parseInt(CharSequence text) {
+        long value = parseLong(text);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw MALFORMED;
+        }
+        return (int) value;
+    }
+
+    static long parseLong(CharSequence text) {
+        int start = start(text);
+        int end = end(text, start);
+        if (start == end) {
+            throw MALFORMED;
+        }
+        boolean negative = false;
+        char c = text.charAt(start);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++start == end) {
+                throw MALFORMED;
+            }
+        }
+        // accumulate negative value to cover Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long minimum = limit / 10;
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < minimum) {
+                throw MALFORMED;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw MALFORMED;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    static double parseDouble(CharSequence text) {
+        int start = start(text);
+        int end = end(text, start);
+        int p = start;
+        boolean negative = false;
+        if (p < end && (text.charAt(p) == '-' || text.charAt(p) == '+')) {
+            negative = text.charAt(p) == '-';
+            p++;
+        }
+        if (matches(text, p, end, "INF")) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if (p == start && matches(text, p, end, "NaN")) {
+            return Double.NaN;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean digits = false;
+        boolean truncated = false;
+        boolean fraction = false;
+        for (; p < end; p++) {
+            char c = text.charAt(p);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            digits = true;
+            if (significant < 18 && (mantissa != 0 || digit != 0)) {
+                mantissa = mantissa * 10 + digit;
+                significant++;
+                if (fraction) {
+                    scale--;
+                }
+            } else if (mantissa == 0) {
+                if (fraction) {
+                    scale--;
+                }
+            } else {
+                truncated |= digit != 0;
+                if (!fraction) {
+                    scale++;
+                }
+            }
+        }
+        if (!digits) {
+            throw MALFORMED;
+        }
+        int exponent = 0;
+        if (p < end && (text.charAt(p) == 'e' || text.charAt(p) == 'E')) {
+            p++;
+            boolean negativeExponent = false;
+            if (p < end && (text.charAt(p) == '-' || text.charAt(p) == '+')) {
+                negativeExponent = text.charAt(p) == '-';
+                p++;
+            }
+            if (p == end) {
+                throw MALFORMED;
+            }
+            for (; p < end; p++) {
+                int digit = text.charAt(p) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw MALFORMED;
+                }
+                exponent = Math.min(exponent * 10 + digit, 100_000);
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (p != end) {
+            throw MALFORMED;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else {
+            int power = scale + exponent;
+            if (!truncated && mantissa < 1L << 53 && power >= -22 && power <= 22) {
+                // both operands are exact, so the result is correctly rounded
+                value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+            } else {
+                return Double.parseDouble(text.subSequence(start, end).toString());
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    static boolean parseBoolean(CharSequence text) {
+        int start = start(text);
+        int end = end(text, start);
+        if (matches(text, start, end, "true") || matches(text, start, end, "1")) {
+            return true;
+        }
+        if (matches(text, start, end, "false") || matches(text, start, end, "0")) {
+            return false;
+        }
+        throw MALFORMED;
+    }
+
+    /**
+     * Parse ISO-8601 date or date and time.
+     *
+     * @param text the value
+     * @return milliseconds since the epoch
+     */
+    static long parseTimestamp(CharSequence text) {
+        int start = start(text);
+        int end = end(text, start);
+        int p = start;
+        boolean negativeYear = p < end && text.charAt(p) == '-';
+        if (negativeYear) {
+            p++;
+        }
+        int yearStart = p;
+        long year = 0;
+        while (p < end && Character.isDigit(text.charAt(p))) {
+            if (p - yearStart == 9) {
+                throw MALFORMED;
+            }
+            year = year * 10 + text.charAt(p++) - '0';
+        }
+        if (p - yearStart < 4) {
+            throw MALFORMED;
+        }
+        if (negativeYear) {
+            year = -year;
+        }
+        p = expect(text, p, end, '-');
+        int month = digits(text, p, end);
+        p = expect(text, p + 2, end, '-');
+        int day = digits(text, p, end);
+        p += 2;
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            throw MALFORMED;
+        }
+        long millis = 0;
+        if (p < end && text.charAt(p) == 'T') {
+            int hour = digits(text, p + 1, end);
+            p = expect(text, p + 3, end, ':');
+            int minute = digits(text, p, end);
+            p += 2;
+            int second = 0;
+            int milli = 0;
+            if (p < end && text.charAt(p) == ':') {
+                second = digits(text, p + 1, end);
+                p += 3;
+                if (p < end && text.charAt(p) == '.') {
+                    int scale = 100;
+                    if (++p == end || !Character.isDigit(text.charAt(p))) {
+                        throw MALFORMED;
+                    }
+                    while (p < end && Character.isDigit(text.charAt(p))) {
+                        milli += (text.charAt(p++) - '0') * scale;
+                        scale /= 10;
+                    }
+                }
+            }
+            if (hour > 23 || minute > 59 || second > 59) {
+                throw MALFORMED;
+            }
+            millis = ((hour * 60L + minute) * 60 + second) * 1000 + milli;
+        }
+        if (p < end) {
+            char c = text.charAt(p);
+            if (c == 'Z') {
+                p++;
+            } else if (c == '+' || c == '-') {
+                int hours = digits(text, p + 1, end);
+                p = expect(text, p + 3, end, ':');
+                int minutes = digits(text, p, end);
+                if (hours > 14 || minutes > 59) {
+                    throw MALFORMED;
+                }
+                int offset = (hours * 60 + minutes) * 60_000;
+                millis -= c == '+' ? offset : -offset;
+                p += 2;
+            }
+        }
+        if (p != end) {
+            throw MALFORMED;
+        }
+        return epochDay(year, month, day) * 86_400_000L + millis;
+    }
+
+    private static int start(CharSequence text) {
+        int start = 0;
+        while (start < text.length() && isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int end(CharSequence text, int start) {
+        int end = text.length();
+        while (end > start && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean matches(CharSequence text, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int expect(CharSequence text, int p, int end, char c) {
+        if (p >= end || text.charAt(p) != c) {
+            throw MALFORMED;
+        }
+        return p + 1;
+    }
+
+    /**
+     * Read exactly two digits.
+     */
+    private static int digits(CharSequence text, int p, int end) {
+        if (p + 2 > end) {
+            throw MALFORMED;
+        }
+        int high = text.charAt(p) - '0';
+        int low = text.charAt(p + 1) - '0';
+        if (high < 0 || high > 9 || low < 0 || low > 9) {
+            throw MALFORMED;
+        }
+        return high * 10 + low;
+    }
+
+    private static int daysInMonth(long year, int month) {
+        if (month == 2) {
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Days from 1970-01-01 in the proleptic Gregorian calendar.
+     */
+    private static long epochDay(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    /**
+     * Thrown for malformed values. Shared and stackless.
+     */
+    static final class Malformed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Malformed() {
+            super("Malformed value", null, false, false);
+        }
+    }
+}
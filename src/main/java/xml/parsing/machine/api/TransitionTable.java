@@ -0,0 +1,68 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+
+/**
+ * Child lookup of a compiled graph as a flat table: a row per node, a column per symbol.
+ * <p>A cell holds position of the first child of the symbol among the children of the node, or -1.</p>
+ */
+final class TransitionTable implements IntBinaryOperator {
+    /**
+     * Limit of cells, 4 MB of table.
+     */
+    static final int MAX_CELLS = 1 << 20;
+    private final int[] cells;
+    private final int width;
+
+    private TransitionTable(int[] cells, int width) {
+        this.cells = cells;
+        this.width = width;
+    }
+
+    /**
+     * Make the table of a plan.
+     *
+     * @param nodes nodes of the compiled graph
+     * @param symbols number of symbols, see {@link SymbolTable#size()}
+     * @return table or {@code null} if it would be larger than {@link #MAX_CELLS}
+     */
+    static TransitionTable build(RootHandler[] nodes, int symbols) {
+        if ((long) nodes.length * symbols > MAX_CELLS) {
+            return null;
+        }
+        int[] cells = new int[nodes.length * symbols];
+        Arrays.fill(cells, -1);
+        for (int node = 0; node < nodes.length; node++) {
+            int[] children = nodes[node].childSymbols;
+            for (int i = children.length - 1; i >= 0; i--) {
+                cells[node * symbols + children[i]] = i;
+            }
+        }
+        return new TransitionTable(cells, symbols);
+    }
+
+    @Override
+    public int applyAsInt(int node, int symbol) {
+        return cells[node * width + symbol];
+    }
+}
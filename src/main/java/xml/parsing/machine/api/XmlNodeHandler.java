@@ -37,6 +37,17 @@ public interface XmlNodeHandler {
 
     void onAttributes(Map<String, String> attributes);
 
+    /**
+     * Called with attributes of the element the handler has just matched, if {@link #needAttributes()}.
+     * <p>The parser calls this method rather than {@link #onAttributes(Map)}. The view is valid only during
+     * the call; handlers should read only the attributes they need.</p>
+     *
+     * @param attributes lazy view of attributes
+     */
+    default void onAttributes(Attributes attributes) {
+        onAttributes(attributes.toMap());
+    }
+
     /**
      * Called when parser has got text of element.
      *
@@ -44,6 +55,18 @@ public interface XmlNodeHandler {
      */
     void onText(Supplier<String> text);
 
+    /**
+     * Called when parser has got text of element.
+     * <p>The parser calls this method rather than {@link #onText(Supplier)}, so handlers able to work with
+     * a {@link CharSequence} can avoid making a {@code String} of the text. The sequence is valid only
+     * during the call.</p>
+     *
+     * @param text method to process text
+     */
+    default void onCharacters(Supplier<CharSequence> text) {
+        onText(() -> text.get().toString());
+    }
+
     /**
      * Called when parser exits from element.
      *
@@ -77,4 +100,14 @@ public interface XmlNodeHandler {
      * @return true to fill in attributes
      */
     boolean needAttributes();
+
+    /**
+     * Defines whether the parser may skip nested elements the handler did not match
+     * without reporting their events to the handler.
+     *
+     * @return true if the handler ignores content of unmatched nested elements
+     */
+    default boolean canSkip() {
+        return false;
+    }
 }
@@ -0,0 +1,64 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bind;
+
+import xml.parsing.machine.api.RootHandler;
+
+import java.util.function.Consumer;
+
+
+/**
+ * Fills objects of an {@link XmlRecord} class from XML. Implementations are generated by {@link BinderProcessor}.
+ *
+ * @param <T> type of records
+ */
+public interface Binder<T> {
+    /**
+     * Builds a handler graph that makes a record of every record element.
+     * <p>The graph writes values right into the record, no properties are collected. The record being filled
+     * is kept by the run-time copy of the record handler, so the graph can be compiled
+     * (see {@link RootHandler#compile()}) and shared by concurrent parsers as any other graph; all the records
+     * go to the same consumer then.</p>
+     *
+     * @param consumer function that gets complete records
+     * @return root handler to pass to the parser
+     */
+    RootHandler handler(Consumer<? super T> consumer);
+
+    /**
+     * Finds the binder generated for the class.
+     * <p>Prefer the generated class itself, like {@code new BookBinder()}, when it is visible at compile time.</p>
+     *
+     * @param type class annotated with {@link XmlRecord}
+     * @param <T> type of records
+     * @return new binder
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Binder<T> of(Class<T> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        String binder = name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + "Binder";
+        try {
+            return (Binder<T>) Class.forName(binder, true, type.getClassLoader())
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("No binder generated for " + name, e);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bind;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Generates {@link Binder} implementations for classes annotated with {@link XmlRecord}.
+ * <p>The processor is found by the compiler on the class path. The generated handlers assign fields directly
+ * and parse numbers the way typed text handlers do, including {@link xml.parsing.machine.api.MalformedTextPolicy},
+ * so no reflection and no property maps are involved while parsing.
+ * Mistakes in annotations, like unsupported field types or malformed paths, are reported as compilation
+ * errors.</p>
+ */
+@SupportedAnnotationTypes("xml.parsing.machine.bind.XmlRecord")
+public class BinderProcessor extends AbstractProcessor {
+    private static final String API = "xml.parsing.machine.api.";
+
+    /**
+     * Kinds of supported fields: how the value is read and stored.
+     */
+    private enum Kind {
+        STRING(null),
+        INT("intValue"),
+        LONG("longValue"),
+        DOUBLE("doubleValue"),
+        BOOLEAN("booleanValue"),
+        COLLECTION(null);
+
+        /**
+         * Method of {@link xml.parsing.machine.api.Handler} parsing the value, {@code null} for strings.
+         */
+        final String parser;
+
+        Kind(String parser) {
+            this.parser = parser;
+        }
+    }
+
+    /**
+     * Field bound to text or attribute.
+     */
+    private static final class Binding {
+        final VariableElement field;
+        final Kind kind;
+        final String target;
+
+        Binding(VariableElement field, Kind kind, String target) {
+            this.field = field;
+            this.kind = kind;
+            this.target = target;
+        }
+
+        /**
+         * Make the statement that stores text {@code v} of type {@code type} in record {@code r}
+         * of handler {@code h}.
+         */
+        String store(String type) {
+            String text = "String".equals(type) ? "v" : "v.toString()";
+            if (kind == Kind.COLLECTION) {
+                return target + ".add(" + text + ");";
+            }
+            if (kind.parser == null) {
+                return String.format(target, text) + ";";
+            }
+            return "h." + kind.parser + "(v, x -> " + String.format(target, "x") + ");";
+        }
+    }
+
+    /**
+     * Element of the record: the record element itself or one of its descendants.
+     */
+    private static final class Node {
+        final Map<String, Node> children = new LinkedHashMap<>();
+        final Map<String, Binding> attributes = new LinkedHashMap<>();
+        Binding text;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(XmlRecord.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@XmlRecord is applicable to classes only");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            String path = type.getAnnotation(XmlRecord.class).value();
+            List<String> steps = steps(path);
+            if (steps == null || steps.get(steps.size() - 1).startsWith("@")) {
+                error(type, "Invalid record path '" + path + "'");
+                continue;
+            }
+            if (!canCreate(type)) {
+                continue;
+            }
+            Node record = new Node();
+            boolean valid = true;
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                XmlPath annotation = field.getAnnotation(XmlPath.class);
+                if (annotation != null) {
+                    valid &= bind(record, type, field, annotation.value());
+                }
+            }
+            if (valid) {
+                write(type, steps, record);
+            }
+        }
+        return true;
+    }
+
+    private boolean canCreate(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "@XmlRecord class must not be abstract");
+            return false;
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement t = (TypeElement) e;
+            if (t.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@XmlRecord class must not be private");
+                return false;
+            }
+            if (t.getNestingKind() != NestingKind.TOP_LEVEL
+                    && (t.getNestingKind() != NestingKind.MEMBER || !t.getModifiers().contains(Modifier.STATIC))) {
+                error(type, "@XmlRecord class must be top level or static nested class");
+                return false;
+            }
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        error(type, "@XmlRecord class must have a non-private constructor without arguments");
+        return false;
+    }
+
+    private boolean bind(Node record, TypeElement type, VariableElement field, String path) {
+        List<String> steps = steps(path);
+        if (steps == null) {
+            error(field, "Invalid path '" + path + "'");
+            return false;
+        }
+        Kind kind = kind(field.asType());
+        if (kind == null) {
+            error(field, "Unsupported type of @XmlPath field: " + field.asType());
+            return false;
+        }
+        if (field.getModifiers().contains(Modifier.STATIC)
+                || kind != Kind.COLLECTION && field.getModifiers().contains(Modifier.FINAL)) {
+            error(field, "@XmlPath field must not be static or final");
+            return false;
+        }
+        String target = target(type, field, kind);
+        if (target == null) {
+            return false;
+        }
+        Binding binding = new Binding(field, kind, target);
+        String last = steps.get(steps.size() - 1);
+        Node node = record;
+        for (String step : steps.subList(0, last.startsWith("@") ? steps.size() - 1 : steps.size())) {
+            if (step.startsWith("@")) {
+                error(field, "Only the last step of path can be an attribute: '" + path + "'");
+                return false;
+            }
+            node = node.children.computeIfAbsent(step, k -> new Node());
+        }
+        if (last.startsWith("@")) {
+            if (kind == Kind.COLLECTION) {
+                error(field, "Attribute can not be bound to a collection: '" + path + "'");
+                return false;
+            }
+            if (node.attributes.putIfAbsent(last.substring(1), binding) != null) {
+                error(field, "Attribute '" + path + "' is already bound to another field");
+                return false;
+            }
+        } else if (node == record) {
+            error(field, "Path must not be empty");
+            return false;
+        } else if (node.text != null) {
+            error(field, "Element '" + path + "' is already bound to field " + node.text.field.getSimpleName());
+            return false;
+        } else {
+            node.text = binding;
+        }
+        return true;
+    }
+
+    private Kind kind(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+        switch (processingEnv.getTypeUtils().erasure(type).toString()) {
+            case "java.lang.String":
+                return Kind.STRING;
+            case "java.lang.Integer":
+                return Kind.INT;
+            case "java.lang.Long":
+                return Kind.LONG;
+            case "java.lang.Double":
+                return Kind.DOUBLE;
+            case "java.lang.Boolean":
+                return Kind.BOOLEAN;
+            default:
+                break;
+        }
+        TypeMirror strings = processingEnv.getTypeUtils().getDeclaredType(
+                processingEnv.getElementUtils().getTypeElement("java.util.Collection"),
+                processingEnv.getElementUtils().getTypeElement("java.lang.String").asType());
+        return processingEnv.getTypeUtils().isAssignable(type, strings) ? Kind.COLLECTION : null;
+    }
+
+    /**
+     * Makes the expression that stores a value in the field of record {@code r}: a format with a single
+     * {@code %s} for the value, or expression of collection to add values to.
+     */
+    private String target(TypeElement type, VariableElement field, Kind kind) {
+        String name = field.getSimpleName().toString();
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return kind == Kind.COLLECTION ? "r." + name : "r." + name + " = %s";
+        }
+        String accessor = (kind == Kind.COLLECTION ? "get" : "set")
+                + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (!method.getSimpleName().contentEquals(accessor) || method.getModifiers().contains(Modifier.PRIVATE)
+                    || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (kind == Kind.COLLECTION && method.getParameters().isEmpty()) {
+                return "r." + accessor + "()";
+            }
+            if (kind != Kind.COLLECTION && method.getParameters().size() == 1 && processingEnv.getTypeUtils()
+                    .isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                return "r." + accessor + "(%s)";
+            }
+        }
+        error(field, "Private @XmlPath field needs a non-private " + accessor + "() method");
+        return null;
+    }
+
+    /**
+     * @return steps of the path or {@code null} if the path is malformed
+     */
+    private static List<String> steps(String path) {
+        String[] steps = (path.startsWith("/") ? path.substring(1) : path).split("/", -1);
+        for (String step : steps) {
+            String name = step.startsWith("@") ? step.substring(1) : step;
+            if (name.isEmpty() || name.contains("*") || name.contains("@") || !name.trim().equals(name)) {
+                return null;
+            }
+        }
+        return Arrays.asList(steps);
+    }
+
+    private void write(TypeElement type, List<String> steps, Node record) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String recordType = type.getQualifiedName().toString();
+        String simpleName = (packageName.isEmpty() ? recordType : recordType.substring(packageName.length() + 1))
+                .replace('.', '_') + "Binder";
+        StringBuilder code = new StringBuilder();
+        code.append("// Generated by ").append(BinderProcessor.class.getName()).append(" from ")
+                .append(recordType).append(", do not edit.\n");
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("/**\n * {@link ").append(Binder.class.getName()).append("} of {@link ").append(recordType)
+                .append("}.\n */\n")
+                .append("public final class ").append(simpleName).append(" implements ")
+                .append(Binder.class.getName()).append('<').append(recordType).append("> {\n")
+                .append("    @Override\n")
+                .append("    public ").append(API).append("RootHandler handler(java.util.function.Consumer<? super ")
+                .append(recordType).append("> consumer) {\n")
+                .append("        if (consumer == null) {\n")
+                .append("            throw new IllegalArgumentException(\"Consumer must not be null\");\n")
+                .append("        }\n")
+                .append("        ").append(API).append("RootHandler root = ").append(API).append("RootHandler.instance();\n")
+                .append("        ").append(API).append("Handler h0 = root");
+        for (String step : steps) {
+            code.append(".then(").append(literal(step)).append(')');
+        }
+        code.append(";\n")
+                .append("        h0.open(h -> h.attach(new ").append(recordType).append("()));\n");
+        int[] counter = {0};
+        node(code, recordType, record, 0, counter);
+        code.append("        h0.close(h -> consumer.accept((").append(recordType).append(") h.attachment()));\n")
+                .append("        return root;\n")
+                .append("    }\n")
+                .append("}\n");
+        String file = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(file, type).openWriter()) {
+            writer.write(code.toString());
+        } catch (IOException e) {
+            error(type, "Can not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generate callbacks of a handler. The record is attached to the run-time copy of the record handler
+     * (see {@link xml.parsing.machine.api.Handler#attach(Object)}), so concurrent runs of a plan do not share it.
+     */
+    private static void node(StringBuilder code, String recordType, Node node, int id, int[] counter) {
+        String handler = "h" + id;
+        if (!node.attributes.isEmpty()) {
+            code.append("        ").append(handler).append(".attributes((h, a) -> {\n")
+                    .append("            ").append(recordType).append(" r = (").append(recordType)
+                    .append(") h.attachment();\n")
+                    .append("            String v;\n");
+            for (Map.Entry<String, Binding> attribute : node.attributes.entrySet()) {
+                code.append("            if ((v = a.get(").append(literal(attribute.getKey())).append(")) != null) {\n")
+                        .append("                ").append(attribute.getValue().store("String")).append('\n')
+                        .append("            }\n");
+            }
+            code.append("        });\n");
+        }
+        if (node.text != null) {
+            code.append("        ").append(handler).append(".content((h, v) -> {\n")
+                    .append("            ").append(recordType).append(" r = (").append(recordType)
+                    .append(") h.attachment();\n")
+                    .append("            ").append(node.text.store("CharSequence")).append('\n')
+                    .append("        });\n");
+        }
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            int childId = ++counter[0];
+            code.append("        ").append(API).append("Handler h").append(childId).append(" = ").append(handler)
+                    .append(".then(").append(literal(child.getKey())).append(");\n");
+            node(code, recordType, child.getValue(), childId, counter);
+        }
+    }
+
+    private static String literal(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
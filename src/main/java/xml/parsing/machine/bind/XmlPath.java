@@ -0,0 +1,47 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Binds a field of {@link XmlRecord} class to text of a nested element or to an attribute.
+ * <p>The path is relative to the record element: element names separated with {@code /}, the last step
+ * can be an attribute: {@code title}, {@code meta/publisher/city}, {@code @id}, {@code file/@type}.</p>
+ * <p>Supported field types are {@code String}, {@code int}, {@code long}, {@code double}, {@code boolean},
+ * their wrappers and collections of {@code String}. Text of an element is taken whole when the element ends,
+ * collections get text of every matching element. Numbers and booleans of elements and attributes are parsed
+ * as by {@link xml.parsing.machine.api.Handler#intText}: a malformed value stops the parse with
+ * {@link IllegalArgumentException}. The field is written directly if it is not private, otherwise through its setter
+ * ({@code getXxx()} for collections).</p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface XmlPath {
+    /**
+     * @return path of element or attribute relative to the record element
+     */
+    String value();
+}
@@ -0,0 +1,54 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a class filled from elements of XML document.
+ * <p>{@link BinderProcessor} generates a {@link Binder} for the class at compile time. Every record element
+ * makes a new instance, its fields annotated with {@link XmlPath} are set from the element and its children,
+ * and the instance is passed to the consumer when the element ends:</p>
+ * <pre>
+ *     &#64;XmlRecord("library/book")
+ *     public class Book {
+ *         &#64;XmlPath("@id") int id;
+ *         &#64;XmlPath("title") String title;
+ *         &#64;XmlPath("price") double price;
+ *     }
+ *
+ *     parser.read(new BookBinder().handler(books::add));
+ * </pre>
+ * <p>The class must have a constructor without arguments. Nested classes must be static, their binders are
+ * named after all enclosing classes: {@code Outer_BookBinder}.</p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface XmlRecord {
+    /**
+     * @return path of the record element from the document root, like {@code library/book}
+     */
+    String value();
+}
@@ -0,0 +1,1100 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import xml.parsing.machine.api.Attributes;
+import xml.parsing.machine.api.CharView;
+import xml.parsing.machine.api.SymbolTable;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Tokenizer of UTF-8 xml working directly on bytes.
+ * <p>Input is a sequence of byte windows addressed by absolute {@code long} position. Events refer to their names,
+ * text and attributes by positions in the input; strings are made only when somebody asks for them.</p>
+ * <p>Supported: elements, attributes, character and predefined entity references, CDATA, comments, processing
+ * instructions. Document type declaration is skipped, so entities declared there are not supported.</p>
+ * <p>If input ends in the middle of a token and more input may come (see {@link #ended()}), {@link #next()}
+ * rewinds to the start of the token and returns {@link #NEED_INPUT}. Text nodes are tokens as well, so handlers
+ * always get the whole text. Skipping of an element is continued by the following calls of {@link #next()}
+ * the same way.</p>
+ */
+abstract class ByteScanner {
+    /**
+     * Returned by {@link #next()} when the next token is not complete yet.
+     */
+    static final int NEED_INPUT = -1;
+
+    private static final Underflow UNDERFLOW = new Underflow();
+
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ':';
+
+    private static final int TEXT = 0;
+    private static final int RAW = 1;
+    private static final int ATTRIBUTE = 2;
+
+    /**
+     * Current window of the input.
+     */
+    protected ByteBuffer window;
+    /**
+     * Absolute position of the first byte of the window.
+     */
+    protected long base;
+    /**
+     * Number of bytes in the window.
+     */
+    protected int length;
+
+    private long position;
+    private int event;
+    private boolean rootClosed;
+
+    private long nameStart;
+    private int nameLength;
+    private int nameHash;
+    private int colon;
+
+    private long textStart;
+    private long textEnd;
+    private boolean cdata;
+    private char[] chars = new char[256];
+    private final CharView view = new CharView();
+    private final AttributeView attributeView = new AttributeView();
+    private int charCount = -1;
+
+    private int attributeCount;
+    private long[] attributeNames = new long[16];
+    private int[] attributeNameLengths = new int[16];
+    private int[] attributeColons = new int[16];
+    private long[] attributeValues = new long[16];
+    private long[] attributeValueEnds = new long[16];
+
+    private int bindingCount;
+    private String[] bindingPrefixes = new String[8];
+    private String[] bindingUris = new String[8];
+    private int[] bindingDepths = new int[8];
+
+    private int depth;
+    private int[] stackHashes = new int[32];
+    private int[] stackLengths = new int[32];
+    private int[] stackOffsets = new int[32];
+    private byte[] stackBytes = new byte[512];
+    private boolean pendingEnd;
+    private int skipLevel;
+
+    private final NameTable names = new NameTable();
+
+    /**
+     * Make the window cover the position.
+     *
+     * @param position absolute position
+     * @return {@code false} if the byte is not available
+     */
+    protected abstract boolean load(long position);
+
+    /**
+     * Tells whether more input can come.
+     *
+     * @return {@code true} if the input is complete
+     */
+    protected abstract boolean ended();
+
+    /**
+     * Position of the first byte the scanner still needs. Bytes before it can be discarded
+     * once the current event is processed.
+     *
+     * @return absolute position
+     */
+    final long position() {
+        return position;
+    }
+
+    /**
+     * Tells whether the root element is complete.
+     *
+     * @return {@code true} if the end tag of the root element has been read
+     */
+    final boolean isRootClosed() {
+        return rootClosed;
+    }
+
+    /**
+     * Start from the beginning of a new document.
+     *
+     * @param start absolute position of the document
+     */
+    final void reset(long start) {
+        position = start;
+        event = XMLStreamConstants.START_DOCUMENT;
+        rootClosed = false;
+        depth = 0;
+        pendingEnd = false;
+        skipLevel = 0;
+        attributeCount = 0;
+        bindingCount = 0;
+        charCount = -1;
+    }
+
+    /**
+     * Write what is needed to continue scanning from the current position: the position, open elements and
+     * namespace declarations. Can be taken only between events, not in the middle of an element.
+     *
+     * @param out target
+     * @throws IOException if writing fails
+     */
+    final void writeState(DataOutput out) throws IOException {
+        if (pendingEnd || skipLevel > 0) {
+            throw new IllegalStateException("State can not be taken inside of a tag");
+        }
+        out.writeLong(position);
+        out.writeBoolean(rootClosed);
+        out.writeInt(depth);
+        for (int i = 0; i < depth; i++) {
+            out.writeShort(stackLengths[i]);
+            out.write(stackBytes, stackOffsets[i], stackLengths[i]);
+        }
+        out.writeInt(bindingCount);
+        for (int i = 0; i < bindingCount; i++) {
+            out.writeUTF(bindingPrefixes[i]);
+            out.writeUTF(bindingUris[i]);
+            out.writeInt(bindingDepths[i]);
+        }
+    }
+
+    /**
+     * Continue scanning from the state written by {@link #writeState(DataOutput)}.
+     *
+     * @param in source
+     * @throws IOException if reading fails
+     */
+    final void readState(DataInput in) throws IOException {
+        reset(in.readLong());
+        event = XMLStreamConstants.END_ELEMENT;
+        rootClosed = in.readBoolean();
+        depth = in.readInt();
+        if (stackHashes.length < depth) {
+            stackHashes = new int[depth * 2];
+            stackLengths = new int[depth * 2];
+            stackOffsets = new int[depth * 2];
+        }
+        int offset = 0;
+        for (int i = 0; i < depth; i++) {
+            int size = in.readUnsignedShort();
+            if (stackBytes.length < offset + size) {
+                stackBytes = Arrays.copyOf(stackBytes, (offset + size) * 2);
+            }
+            in.readFully(stackBytes, offset, size);
+            int h = 0;
+            for (int j = offset; j < offset + size; j++) {
+                h = 31 * h + stackBytes[j];
+            }
+            stackHashes[i] = h;
+            stackLengths[i] = size;
+            stackOffsets[i] = offset;
+            offset += size;
+        }
+        bindingCount = in.readInt();
+        if (bindingDepths.length < bindingCount) {
+            bindingPrefixes = new String[bindingCount * 2];
+            bindingUris = new String[bindingCount * 2];
+            bindingDepths = new int[bindingCount * 2];
+        }
+        for (int i = 0; i < bindingCount; i++) {
+            bindingPrefixes[i] = in.readUTF();
+            bindingUris[i] = in.readUTF();
+            bindingDepths[i] = in.readInt();
+        }
+    }
+
+    /**
+     * Read the next event.
+     *
+     * @return see {@link XMLStreamConstants}, or {@link #NEED_INPUT}
+     */
+    final int next() {
+        charCount = -1;
+        if (pendingEnd) {
+            pendingEnd = false;
+            return event = pop();
+        }
+        long start = position;
+        try {
+            if (skipLevel > 0) {
+                skip();
+                pop();
+                start = position;
+            }
+            if (event == XMLStreamConstants.START_DOCUMENT && start == position) {
+                skipByteOrderMark();
+            }
+            return event = scan();
+        } catch (Underflow e) {
+            if (skipLevel == 0) {
+                position = start;
+            }
+            return NEED_INPUT;
+        }
+    }
+
+    /**
+     * Skip content of the element that has just started.
+     * <p>The bytes are scanned only for tag boundaries, nothing is decoded. If input ends before the matching
+     * end tag, skipping continues on the following calls of {@link #next()}. The end of the element is never
+     * reported: the next event is the one following the element.</p>
+     */
+    final void skipElement() {
+        if (event != XMLStreamConstants.START_ELEMENT) {
+            throw new IllegalStateException("Only the element which has just started can be skipped");
+        }
+        charCount = -1;
+        event = XMLStreamConstants.END_ELEMENT;
+        if (pendingEnd) {
+            pendingEnd = false;
+            pop();
+            return;
+        }
+        skipLevel = 1;
+        try {
+            skip();
+            pop();
+        } catch (Underflow e) {
+            // will be continued by next()
+        }
+    }
+
+    private int pop() {
+        depth--;
+        while (bindingCount > 0 && bindingDepths[bindingCount - 1] > depth) {
+            bindingCount--;
+        }
+        if (depth == 0) {
+            rootClosed = true;
+        }
+        return XMLStreamConstants.END_ELEMENT;
+    }
+
+    private int scan() {
+        while (true) {
+            if (!has(position)) {
+                if (!rootClosed) {
+                    throw error("Unexpected end of document");
+                }
+                return XMLStreamConstants.END_DOCUMENT;
+            }
+            byte b = at(position);
+            if (b != '<') {
+                if (depth == 0) {
+                    if (!isWhitespace(b)) {
+                        throw error("Content is not allowed outside of root element");
+                    }
+                    position++;
+                    continue;
+                }
+                return scanText();
+            }
+            byte c = at(position + 1);
+            if (c == '/') {
+                return scanEndTag();
+            } else if (c == '?') {
+                skipInstruction();
+            } else if (c == '!') {
+                if (matches(position + 2, "--")) {
+                    position = find("-->", position + 4) + 3;
+                } else if (matches(position + 2, "[CDATA[")) {
+                    if (depth == 0) {
+                        throw error("CDATA is not allowed outside of root element");
+                    }
+                    textStart = position + 9;
+                    textEnd = find("]]>", textStart);
+                    cdata = true;
+                    position = textEnd + 3;
+                    return XMLStreamConstants.CHARACTERS;
+                } else if (matches(position + 2, "DOCTYPE")) {
+                    skipDoctype();
+                } else {
+                    throw error("Unexpected markup");
+                }
+            } else {
+                return scanStartTag();
+            }
+        }
+    }
+
+    private int scanText() {
+        long p = position;
+        while (true) {
+            if (p - base >= 0 && p - base < length) {
+                int end = length;
+                int i = (int) (p - base);
+                while (i < end && window.get(i) != '<') {
+                    i++;
+                }
+                p = base + i;
+                if (i < end) {
+                    break;
+                }
+            } else if (!load(p)) {
+                if (ended()) {
+                    throw error("Unexpected end of document");
+                }
+                throw UNDERFLOW;
+            }
+        }
+        textStart = position;
+        textEnd = p;
+        cdata = false;
+        position = p;
+        return XMLStreamConstants.CHARACTERS;
+    }
+
+    private int scanStartTag() {
+        if (rootClosed) {
+            throw error("Only one root element is allowed");
+        }
+        long p = scanName(position + 1);
+        long elementStart = nameStart;
+        int elementLength = nameLength;
+        int elementHash = nameHash;
+        int elementColon = colon;
+        int count = 0;
+        boolean empty;
+        while (true) {
+            p = skipWhitespace(p);
+            byte b = at(p);
+            if (b == '>') {
+                p++;
+                empty = false;
+                break;
+            }
+            if (b == '/') {
+                if (at(p + 1) != '>') {
+                    throw error("Expected '>'");
+                }
+                p += 2;
+                empty = true;
+                break;
+            }
+            if (count == attributeNames.length) {
+                growAttributes();
+            }
+            p = scanName(p);
+            attributeNames[count] = nameStart;
+            attributeNameLengths[count] = nameLength;
+            attributeColons[count] = colon;
+            p = skipWhitespace(p);
+            if (at(p) != '=') {
+                throw error("Expected '='");
+            }
+            p = skipWhitespace(p + 1);
+            byte quote = at(p);
+            if (quote != '"' && quote != '\'') {
+                throw error("Attribute value must be quoted");
+            }
+            attributeValues[count] = p + 1;
+            p = find(quote, p + 1);
+            attributeValueEnds[count] = p;
+            p++;
+            count++;
+        }
+        nameStart = elementStart;
+        nameLength = elementLength;
+        nameHash = elementHash;
+        colon = elementColon;
+        attributeCount = count;
+        if (depth == stackHashes.length) {
+            stackHashes = Arrays.copyOf(stackHashes, depth * 2);
+            stackLengths = Arrays.copyOf(stackLengths, depth * 2);
+            stackOffsets = Arrays.copyOf(stackOffsets, depth * 2);
+        }
+        int offset = depth == 0 ? 0 : stackOffsets[depth - 1] + stackLengths[depth - 1];
+        if (stackBytes.length < offset + nameLength) {
+            stackBytes = Arrays.copyOf(stackBytes, (offset + nameLength) * 2);
+        }
+        for (int i = 0; i < nameLength; i++) {
+            stackBytes[offset + i] = at(nameStart + i);
+        }
+        stackHashes[depth] = nameHash;
+        stackLengths[depth] = nameLength;
+        stackOffsets[depth] = offset;
+        depth++;
+        for (int i = 0; i < count; i++) {
+            if (isNamespaceDeclaration(i)) {
+                bind(i);
+            }
+        }
+        pendingEnd = empty;
+        position = p;
+        return XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Remember namespace declared by an attribute of the current element.
+     *
+     * @param i attribute index
+     */
+    private void bind(int i) {
+        if (bindingCount == bindingDepths.length) {
+            bindingPrefixes = Arrays.copyOf(bindingPrefixes, bindingCount * 2);
+            bindingUris = Arrays.copyOf(bindingUris, bindingCount * 2);
+            bindingDepths = Arrays.copyOf(bindingDepths, bindingCount * 2);
+        }
+        long start = attributeNames[i] + XMLNS_PREFIX.length();
+        int size = attributeNameLengths[i] - XMLNS_PREFIX.length();
+        bindingPrefixes[bindingCount] = size < 0 ? "" : names.get(this, start, size, hash(start, size));
+        long valueStart = attributeValues[i];
+        long valueEnd = attributeValueEnds[i];
+        String uri = null;
+        for (long p = valueStart; p < valueEnd; p++) {
+            if (at(p) == '&') {
+                uri = new String(chars, 0, decode(valueStart, valueEnd, ATTRIBUTE));
+                charCount = -1;
+                break;
+            }
+        }
+        if (uri == null) {
+            int length = (int) (valueEnd - valueStart);
+            uri = names.get(this, valueStart, length, hash(valueStart, length));
+        }
+        bindingUris[bindingCount] = uri;
+        bindingDepths[bindingCount] = depth;
+        bindingCount++;
+    }
+
+    private int scanEndTag() {
+        if (depth == 0) {
+            throw error("Unexpected end tag");
+        }
+        long p = scanName(position + 2);
+        p = skipWhitespace(p);
+        if (at(p) != '>') {
+            throw error("Expected '>'");
+        }
+        if (stackHashes[depth - 1] != nameHash || stackLengths[depth - 1] != nameLength
+                || !matchesOpen(depth - 1)) {
+            throw error("End tag does not match start tag");
+        }
+        position = p + 1;
+        return pop();
+    }
+
+    /**
+     * Scan name and remember it as the name of the current event.
+     *
+     * @return position after the name
+     */
+    private long scanName(long start) {
+        long p = start;
+        int h = 0;
+        int c = -1;
+        while (true) {
+            byte b = at(p);
+            if (isWhitespace(b) || b == '>' || b == '/' || b == '=' || b == '<' || b == '"' || b == '\'') {
+                break;
+            }
+            if (b == ':' && c < 0) {
+                c = (int) (p - start);
+            }
+            h = 31 * h + b;
+            p++;
+        }
+        if (p == start) {
+            throw error("Name expected");
+        }
+        nameStart = start;
+        nameLength = (int) (p - start);
+        nameHash = h;
+        colon = c;
+        return p;
+    }
+
+    private void skip() {
+        long p = position;
+        while (skipLevel > 0) {
+            p = find((byte) '<', p);
+            byte c = at(p + 1);
+            if (c == '/') {
+                p = find((byte) '>', p + 2) + 1;
+                skipLevel--;
+            } else if (c == '!') {
+                if (matches(p + 2, "--")) {
+                    p = find("-->", p + 4) + 3;
+                } else if (matches(p + 2, "[CDATA[")) {
+                    p = find("]]>", p + 9) + 3;
+                } else {
+                    p = find((byte) '>', p + 2) + 1;
+                }
+            } else if (c == '?') {
+                p = find("?>", p + 2) + 2;
+            } else {
+                p++;
+                byte b;
+                while ((b = at(p)) != '>') {
+                    if (b == '"' || b == '\'') {
+                        p = find(b, p + 1);
+                    }
+                    p++;
+                }
+                if (at(p - 1) != '/') {
+                    skipLevel++;
+                }
+                p++;
+            }
+            position = p;
+        }
+    }
+
+    private void skipInstruction() {
+        long end = find("?>", position + 2);
+        if (matches(position + 2, "xml") && isWhitespace(at(position + 5))) {
+            checkEncoding(position + 6, end);
+        }
+        position = end + 2;
+    }
+
+    private void checkEncoding(long start, long end) {
+        for (long p = start; p + 8 < end; p++) {
+            if (matches(p, "encoding")) {
+                p = skipWhitespace(p + 8);
+                if (at(p) != '=') {
+                    throw error("Expected '='");
+                }
+                p = skipWhitespace(p + 1);
+                byte quote = at(p);
+                long valueEnd = find(quote, p + 1);
+                String encoding = new String(bytes(p + 1, (int) (valueEnd - p - 1)), StandardCharsets.US_ASCII);
+                if (!"UTF-8".equalsIgnoreCase(encoding) && !"UTF8".equalsIgnoreCase(encoding)
+                        && !"US-ASCII".equalsIgnoreCase(encoding) && !"ASCII".equalsIgnoreCase(encoding))
+                {
+                    throw error("Unsupported encoding " + encoding);
+                }
+                return;
+            }
+        }
+    }
+
+    private void skipDoctype() {
+        long p = position + 9;
+        int brackets = 0;
+        while (true) {
+            byte b = at(p);
+            if (b == '"' || b == '\'') {
+                p = find(b, p + 1);
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets == 0) {
+                position = p + 1;
+                return;
+            }
+            p++;
+        }
+    }
+
+    private void skipByteOrderMark() {
+        if (has(position) && (at(position) & 0xff) == 0xef) {
+            if ((at(position + 1) & 0xff) == 0xbb && (at(position + 2) & 0xff) == 0xbf) {
+                position += 3;
+            }
+        }
+    }
+
+    private long skipWhitespace(long p) {
+        while (isWhitespace(at(p))) {
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private void growAttributes() {
+        int size = attributeNames.length * 2;
+        attributeNames = Arrays.copyOf(attributeNames, size);
+        attributeNameLengths = Arrays.copyOf(attributeNameLengths, size);
+        attributeColons = Arrays.copyOf(attributeColons, size);
+        attributeValues = Arrays.copyOf(attributeValues, size);
+        attributeValueEnds = Arrays.copyOf(attributeValueEnds, size);
+    }
+
+    /**
+     * Get local name of the current element.
+     *
+     * @return name without prefix
+     */
+    final String localName() {
+        if (colon < 0) {
+            return names.get(this, nameStart, nameLength, nameHash);
+        }
+        long start = nameStart + colon + 1;
+        int size = nameLength - colon - 1;
+        return names.get(this, start, size, hash(start, size));
+    }
+
+    /**
+     * Get namespace URI of the current element.
+     * <p>Declarations are tracked by the scanner, names of prefixes and URIs are cached, so the same
+     * namespace gives the same string instance.</p>
+     *
+     * @return namespace URI, {@code null} if the element has no namespace
+     */
+    final String namespaceURI() {
+        return resolve(colon < 0 ? "" : names.get(this, nameStart, colon, hash(nameStart, colon)));
+    }
+
+    private String resolve(String prefix) {
+        for (int i = bindingCount - 1; i >= 0; i--) {
+            if (bindingPrefixes[i].equals(prefix)) {
+                return bindingUris[i];
+            }
+        }
+        return "xml".equals(prefix) ? XMLConstants.XML_NS_URI : null;
+    }
+
+    /**
+     * Find symbol of local name of the current element comparing the raw bytes with the candidates.
+     *
+     * @param symbols names to look for
+     * @return symbol or {@link SymbolTable#UNKNOWN}
+     */
+    final int localSymbol(SymbolTable symbols) {
+        long start = nameStart;
+        int size = nameLength;
+        int hash = nameHash;
+        if (colon >= 0) {
+            start += colon + 1;
+            size -= colon + 1;
+            hash = hash(start, size);
+        }
+        for (int symbol = symbols.firstCandidate(hash, size); symbol != SymbolTable.UNKNOWN;
+                symbol = symbols.nextCandidate(symbol)) {
+            if (matches(start, symbols.utf8(symbol))) {
+                return symbol;
+            }
+        }
+        return SymbolTable.UNKNOWN;
+    }
+
+    /**
+     * Get text of the current {@code CHARACTERS} event.
+     *
+     * @return decoded text
+     */
+    final String text() {
+        decodeText();
+        return new String(chars, 0, charCount);
+    }
+
+    /**
+     * Get text of the current {@code CHARACTERS} event without copying it.
+     *
+     * @return view of the decoded text valid until the next event
+     */
+    final CharSequence textView() {
+        decodeText();
+        return view.set(chars, 0, charCount);
+    }
+
+    /**
+     * Decode text of the current event into the reusable buffer.
+     */
+    final void decodeText() {
+        if (charCount < 0) {
+            charCount = decode(textStart, textEnd, cdata ? RAW : TEXT);
+        }
+    }
+
+    /**
+     * Get attributes of the current element, except namespace declarations.
+     *
+     * @return map of local name to value
+     */
+    final Map<String, String> attributes() {
+        Map<String, String> attributes = new HashMap<>(attributeCount * 2);
+        for (int i = 0; i < attributeCount; i++) {
+            long start = attributeNames[i];
+            int size = attributeNameLengths[i];
+            if (isNamespaceDeclaration(i)) {
+                continue;
+            }
+            int prefix = attributeColons[i];
+            if (prefix >= 0) {
+                start += prefix + 1;
+                size -= prefix + 1;
+            }
+            int count = decode(attributeValues[i], attributeValueEnds[i], ATTRIBUTE);
+            attributes.put(names.get(this, start, size, hash(start, size)), new String(chars, 0, count));
+        }
+        charCount = -1;
+        return attributes;
+    }
+
+    /**
+     * Get lazy view of attributes of the current element, except namespace declarations.
+     *
+     * @return view valid until the next event
+     */
+    final Attributes attributeView() {
+        attributeView.reset();
+        return attributeView;
+    }
+
+    /**
+     * Decode UTF-8 bytes into {@link #chars}, normalizing line ends and resolving references.
+     *
+     * @return number of chars
+     */
+    private int decode(long start, long end, int mode) {
+        if (chars.length < end - start + 1) {
+            long size = Math.max(chars.length * 2L, end - start + 1);
+            chars = new char[(int) Math.min(Integer.MAX_VALUE - 8, size)];
+        }
+        int count = 0;
+        long p = start;
+        while (p < end) {
+            long offset = p - base;
+            if (offset >= 0 && offset < length) {
+                // plain ASCII goes as is
+                int i = (int) offset;
+                int limit = (int) Math.min(length, end - base);
+                while (i < limit) {
+                    byte b = window.get(i);
+                    if (b < 0 || b == '&' || b == '\r' || mode == ATTRIBUTE && (b == '\n' || b == '\t')) {
+                        break;
+                    }
+                    chars[count++] = (char) b;
+                    i++;
+                }
+                p = base + i;
+                if (p >= end) {
+                    break;
+                }
+            }
+            int b = at(p) & 0xff;
+            if (b < 0x80) {
+                p++;
+                if (b == '&' && mode != RAW) {
+                    long semicolon = find((byte) ';', p);
+                    if (semicolon >= end) {
+                        throw error("Unterminated reference");
+                    }
+                    count = reference(p, semicolon, count);
+                    p = semicolon + 1;
+                } else if (b == '\r') {
+                    if (p < end && at(p) == '\n') {
+                        p++;
+                    }
+                    chars[count++] = mode == ATTRIBUTE ? ' ' : '\n';
+                } else if (mode == ATTRIBUTE && (b == '\n' || b == '\t')) {
+                    chars[count++] = ' ';
+                } else {
+                    chars[count++] = (char) b;
+                }
+            } else {
+                int size;
+                int code;
+                if (b >= 0xf0) {
+                    size = 4;
+                    code = b & 0x07;
+                } else if (b >= 0xe0) {
+                    size = 3;
+                    code = b & 0x0f;
+                } else if (b >= 0xc0) {
+                    size = 2;
+                    code = b & 0x1f;
+                } else {
+                    throw error("Malformed UTF-8");
+                }
+                if (p + size > end) {
+                    throw error("Malformed UTF-8");
+                }
+                for (int i = 1; i < size; i++) {
+                    int next = at(p + i) & 0xff;
+                    if ((next & 0xc0) != 0x80) {
+                        throw error("Malformed UTF-8");
+                    }
+                    code = (code << 6) | (next & 0x3f);
+                }
+                p += size;
+                count = append(code, count);
+            }
+        }
+        return count;
+    }
+
+    private int reference(long start, long end, int count) {
+        if (at(start) == '#') {
+            int code = 0;
+            boolean hex = at(start + 1) == 'x';
+            long digits = start + (hex ? 2 : 1);
+            if (digits >= end) {
+                throw error("Malformed character reference");
+            }
+            for (long p = digits; p < end; p++) {
+                int digit = Character.digit(at(p), hex ? 16 : 10);
+                if (digit < 0 || code > 0x10ffff) {
+                    throw error("Malformed character reference");
+                }
+                code = code * (hex ? 16 : 10) + digit;
+            }
+            if (code == 0) {
+                throw error("Invalid character");
+            }
+            return append(code, count);
+        }
+        char c;
+        if (matches(start, (int) (end - start), "lt")) {
+            c = '<';
+        } else if (matches(start, (int) (end - start), "gt")) {
+            c = '>';
+        } else if (matches(start, (int) (end - start), "amp")) {
+            c = '&';
+        } else if (matches(start, (int) (end - start), "quot")) {
+            c = '"';
+        } else if (matches(start, (int) (end - start), "apos")) {
+            c = '\'';
+        } else {
+            throw error("Unknown entity reference");
+        }
+        chars[count] = c;
+        return count + 1;
+    }
+
+    private int append(int code, int count) {
+        if (code > 0x10ffff) {
+            throw error("Invalid character");
+        }
+        if (Character.isSupplementaryCodePoint(code)) {
+            chars[count++] = Character.highSurrogate(code);
+            chars[count++] = Character.lowSurrogate(code);
+        } else {
+            chars[count++] = (char) code;
+        }
+        return count;
+    }
+
+    /**
+     * Get byte at absolute position.
+     */
+    final byte at(long p) {
+        long offset = p - base;
+        if (offset < 0 || offset >= length) {
+            if (!load(p)) {
+                if (ended()) {
+                    throw error("Unexpected end of document");
+                }
+                throw UNDERFLOW;
+            }
+            offset = p - base;
+        }
+        return window.get((int) offset);
+    }
+
+    /**
+     * Check if there is a byte at the position.
+     *
+     * @return {@code false} if the input has ended before the position
+     */
+    private boolean has(long p) {
+        long offset = p - base;
+        if (offset >= 0 && offset < length || load(p)) {
+            return true;
+        }
+        if (ended()) {
+            return false;
+        }
+        throw UNDERFLOW;
+    }
+
+    private long find(byte b, long from) {
+        long p = from;
+        while (true) {
+            long offset = p - base;
+            if (offset < 0 || offset >= length) {
+                at(p);
+                offset = p - base;
+            }
+            int i = (int) offset;
+            int end = length;
+            while (i < end) {
+                if (window.get(i) == b) {
+                    return base + i;
+                }
+                i++;
+            }
+            p = base + end;
+        }
+    }
+
+    private long find(String sequence, long from) {
+        byte first = (byte) sequence.charAt(0);
+        long p = from;
+        while (true) {
+            p = find(first, p);
+            if (matches(p, sequence)) {
+                return p;
+            }
+            p++;
+        }
+    }
+
+    private boolean isNamespaceDeclaration(int i) {
+        int prefix = attributeColons[i];
+        long start = attributeNames[i];
+        return prefix < 0 ? matches(start, attributeNameLengths[i], XMLConstants.XMLNS_ATTRIBUTE)
+                : prefix == XMLConstants.XMLNS_ATTRIBUTE.length() && matches(start, XMLNS_PREFIX);
+    }
+
+    private boolean matches(long start, String sequence) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (at(start + i) != sequence.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(long start, int size, String sequence) {
+        return size == sequence.length() && matches(start, sequence);
+    }
+
+    final boolean matches(long start, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (at(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare the current name with the bytes of an open element.
+     */
+    private boolean matchesOpen(int level) {
+        int offset = stackOffsets[level];
+        for (int i = 0; i < nameLength; i++) {
+            if (at(nameStart + i) != stackBytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    final byte[] bytes(long start, int size) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = at(start + i);
+        }
+        return result;
+    }
+
+    final int hash(long start, int size) {
+        int h = 0;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + at(start + i);
+        }
+        return h;
+    }
+
+    final RuntimeException error(String message) {
+        return new RuntimeException(new XMLStreamException(message + " at byte " + position));
+    }
+
+    /**
+     * Thrown when a token continues beyond the available input.
+     */
+    private static final class Underflow extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Underflow() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Refers to attributes by their positions in the input. Only the asked values are decoded.
+     */
+    private final class AttributeView implements Attributes {
+        private int[] indexes = new int[16];
+        private int size;
+
+        void reset() {
+            if (indexes.length < attributeCount) {
+                indexes = new int[attributeNames.length];
+            }
+            size = 0;
+            for (int i = 0; i < attributeCount; i++) {
+                if (!isNamespaceDeclaration(i)) {
+                    indexes[size++] = i;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String name(int index) {
+            int i = indexes[index];
+            long start = attributeNames[i];
+            int length = attributeNameLengths[i];
+            int prefix = attributeColons[i];
+            if (prefix >= 0) {
+                start += prefix + 1;
+                length -= prefix + 1;
+            }
+            return names.get(ByteScanner.this, start, length, hash(start, length));
+        }
+
+        @Override
+        public String namespace(int index) {
+            int i = indexes[index];
+            int prefix = attributeColons[i];
+            if (prefix < 0) {
+                return null;
+            }
+            long start = attributeNames[i];
+            return resolve(names.get(ByteScanner.this, start, prefix, hash(start, prefix)));
+        }
+
+        @Override
+        public String value(int index) {
+            int i = indexes[index];
+            int count = decode(attributeValues[i], attributeValueEnds[i], ATTRIBUTE);
+            charCount = -1;
+            return new String(chars, 0, count);
+        }
+    }
+}
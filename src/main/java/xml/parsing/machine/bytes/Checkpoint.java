@@ -0,0 +1,155 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import xml.parsing.machine.api.RunState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Point of a {@link MappedParser} run to continue from: the byte offset right after a record, open elements
+ * of the document and the state of handlers, see {@link MappedParser#resume(xml.parsing.machine.api.Plan,
+ * Checkpoint)}. The checkpoint also keeps the size and a checksum of the beginning of the input, so it is not
+ * applied to another document.
+ */
+public final class Checkpoint {
+    private static final int MAGIC = 0x584d4350;
+    private static final int VERSION = 2;
+
+    private final long position;
+    private final long inputSize;
+    private final long inputDigest;
+    private final byte[] input;
+    private final RunState state;
+
+    Checkpoint(long position, long inputSize, long inputDigest, byte[] input, RunState state) {
+        this.position = position;
+        this.inputSize = inputSize;
+        this.inputDigest = inputDigest;
+        this.input = input;
+        this.state = state;
+    }
+
+    /**
+     * @return byte offset of the input the run continues from
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return state of handlers
+     */
+    public RunState state() {
+        return state;
+    }
+
+    /**
+     * Tells whether the checkpoint was taken from the input.
+     *
+     * @param size size of the input in bytes
+     * @param digest checksum of the beginning of the input
+     * @return {@code true} if both match
+     */
+    boolean takenFrom(long size, long digest) {
+        return inputSize == size && inputDigest == digest;
+    }
+
+    /**
+     * Restore the scanner state.
+     *
+     * @param scanner scanner of the same document
+     */
+    void apply(ByteScanner scanner) {
+        try {
+            scanner.readState(new DataInputStream(new ByteArrayInputStream(input)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Damaged checkpoint", e);
+        }
+    }
+
+    /**
+     * Write the checkpoint to a file. The data is forced to the storage device before the file is replaced,
+     * and the file is replaced atomically where the file system allows, so a crash during the write leaves
+     * the previous checkpoint.
+     *
+     * @param file target file
+     * @throws IOException if writing fails
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(position);
+            out.writeLong(inputSize);
+            out.writeLong(inputDigest);
+            out.writeInt(input.length);
+            out.write(input);
+            state.write(out);
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a checkpoint written by {@link #save(Path)}.
+     *
+     * @param file checkpoint file
+     * @return checkpoint
+     * @throws IOException if reading fails or the file is not a checkpoint
+     */
+    public static Checkpoint load(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported version of checkpoint: " + file);
+            }
+            long position = in.readLong();
+            long inputSize = in.readLong();
+            long inputDigest = in.readLong();
+            byte[] input = new byte[in.readInt()];
+            in.readFully(input);
+            return new Checkpoint(position, inputSize, inputDigest, input, RunState.read(in));
+        }
+    }
+}
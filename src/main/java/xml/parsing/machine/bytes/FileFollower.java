@@ -0,0 +1,127 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Parses a file which is still being written, like a log of {@code <event>} records appended by another process.
+ * <p>New bytes are passed to a {@link PushParser} as they appear, so records are processed shortly after they
+ * are written and no byte is read twice. At the end of the file the follower polls for new bytes, starting with
+ * a short delay and doubling it while the file does not grow, up to the maximum delay. While waiting, batches
+ * of {@link xml.parsing.machine.api.Handler#closeBatch(int, Duration, java.util.function.Consumer)} are delivered
+ * when their time limit passes, at most the maximum delay late.</p>
+ * <pre>
+ *     PushParser parser = new PushParser(plan);
+ *     new FileFollower(log).follow(parser);
+ * </pre>
+ * <p>Following ends when the root element is closed or the parse is stopped, e.g. by
+ * {@link PushParser#cancel()} from another thread.</p>
+ */
+public final class FileFollower {
+    private final Path file;
+    private long minDelay = TimeUnit.MILLISECONDS.toNanos(1);
+    private long maxDelay = TimeUnit.MILLISECONDS.toNanos(200);
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * @param file file to follow
+     */
+    public FileFollower(Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null");
+        }
+        this.file = file;
+    }
+
+    /**
+     * Set delays of polling at the end of the file. The maximum delay is also the longest time
+     * the follower needs to notice that the parse is stopped.
+     *
+     * @param min delay after new bytes have been read
+     * @param max limit of the delay while the file does not grow
+     * @return {@code this}
+     */
+    public FileFollower delays(Duration min, Duration max) {
+        if (min == null || max == null || min.isNegative() || min.isZero() || max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("Delays must be positive and min must not exceed max");
+        }
+        minDelay = min.toNanos();
+        maxDelay = max.toNanos();
+        return this;
+    }
+
+    /**
+     * @param bufferSize number of bytes read at once
+     * @return {@code this}
+     */
+    public FileFollower bufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Feed the file to the parser from its beginning, waiting for new bytes at the end of the file.
+     *
+     * @param parser new parser of the document
+     * @return number of bytes read
+     * @throws IOException if the file can not be read or it has been truncated
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long follow(PushParser parser) throws IOException, InterruptedException {
+        if (parser == null) {
+            throw new IllegalArgumentException("Parser must not be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+            long position = 0;
+            long delay = minDelay;
+            while (!parser.isComplete() && !parser.control().isStopped()) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read > 0) {
+                    position += read;
+                    buffer.flip();
+                    parser.feed(buffer);
+                    delay = minDelay;
+                } else {
+                    if (channel.size() < position) {
+                        throw new IOException("File has been truncated: " + file);
+                    }
+                    // let batches waiting for records meet their time limit
+                    buffer.flip();
+                    parser.feed(buffer);
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                    delay = Math.min(delay * 2, maxDelay);
+                }
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import xml.parsing.machine.api.AbstractXmlParser;
+import xml.parsing.machine.api.Attributes;
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.RunState;
+import xml.parsing.machine.api.SymbolTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+
+/**
+ * Parser working directly on bytes of a memory-mapped file.
+ * <p>There is no reader, decoder or intermediate buffer between the file and the handlers: element names are
+ * resolved through a small cache, text and attributes are decoded only when a handler asks for them,
+ * and unmatched elements are skipped by a raw scan for tag boundaries. Files larger than 2GB are mapped
+ * as a sequence of windows.</p>
+ * <p>The input must be UTF-8 (or ASCII). Entities declared in the document type declaration are not supported.</p>
+ */
+public class MappedParser extends AbstractXmlParser {
+    private static final int WINDOW_BITS = 30;
+    /**
+     * Number of leading bytes of the input in its checksum, see {@link Checkpoint}.
+     */
+    private static final int DIGEST_BYTES = 64 * 1024;
+
+    private final Scanner scanner;
+    private Consumer<Checkpoint> checkpointConsumer;
+    private long digest = -1;
+
+    /**
+     * Map the file. The file is not locked and must not be changed while the parser is in use.
+     *
+     * @param file xml file
+     * @throws IOException if file can not be mapped
+     */
+    public MappedParser(Path file) throws IOException {
+        this(map(file), WINDOW_BITS);
+    }
+
+    /**
+     * Parse content of a buffer, from its position to its limit.
+     *
+     * @param buffer xml document
+     */
+    public MappedParser(ByteBuffer buffer) {
+        this(new ByteBuffer[] {buffer.slice()}, Integer.SIZE - 1);
+    }
+
+    /**
+     * @param windows consecutive parts of the document, all but the last one of {@code 2^windowBits} bytes
+     * @param windowBits binary logarithm of window size
+     */
+    MappedParser(ByteBuffer[] windows, int windowBits) {
+        long size = 0;
+        for (ByteBuffer window : windows) {
+            size += window.limit();
+        }
+        this.scanner = new Scanner(windows, size, windowBits);
+    }
+
+    private static ByteBuffer[] map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long window = 1L << WINDOW_BITS;
+            ByteBuffer[] windows = new ByteBuffer[(int) Math.max(1, (size + window - 1) >>> WINDOW_BITS)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = i * window;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(window, size - start));
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * Take a checkpoint after every {@code interval} completed records and write it to the file,
+     * see {@link Checkpoint#save(Path)}. A failed run can be continued from the last checkpoint with
+     * {@link #resume(Plan, Checkpoint)}.
+     *
+     * @param file checkpoint file, replaced by every checkpoint
+     * @param record name of record element
+     * @param interval number of records between checkpoints
+     * @return {@code this}
+     */
+    public MappedParser checkpoints(Path file, String record, int interval) {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null");
+        }
+        return checkpoints(record, interval, checkpoint -> {
+            try {
+                checkpoint.save(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Take a checkpoint after every {@code interval} completed records.
+     * <p>The consumer is called right after the end of the record, when its callbacks have completed
+     * and batches of {@link xml.parsing.machine.api.Handler#closeBatch(int, Consumer)} have been delivered.</p>
+     *
+     * @param record name of record element
+     * @param interval number of records between checkpoints
+     * @param consumer receives checkpoints
+     * @return {@code this}
+     */
+    public MappedParser checkpoints(String record, int interval, Consumer<Checkpoint> consumer) {
+        if (record == null || record.isEmpty()) {
+            throw new IllegalArgumentException("Record must not be empty");
+        }
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null");
+        }
+        checkpointEvery(record, interval);
+        checkpointConsumer = consumer;
+        return this;
+    }
+
+    /**
+     * Continue a run of the plan from the checkpoint.
+     * <p>The parser must read the same document the checkpoint was taken from. Handlers get the state they had
+     * at the checkpoint, so records are delivered as if the run had never been interrupted.</p>
+     *
+     * @param plan plan the checkpoint was taken from
+     * @param checkpoint checkpoint
+     * @throws IllegalArgumentException if the size or the beginning of the document differs from the one
+     *         the checkpoint was taken from
+     */
+    public void resume(Plan plan, Checkpoint checkpoint) {
+        start(plan);
+        continueFrom(checkpoint);
+    }
+
+    /**
+     * Continue a run of the plan from the checkpoint passing completed records to the listener,
+     * see {@link #resume(Plan, Checkpoint)} and {@link #read(Plan, String, Consumer)}.
+     *
+     * @param plan plan the checkpoint was taken from
+     * @param checkpoint checkpoint
+     * @param record name of record element
+     * @param listener receives run-time copy of the record handler
+     */
+    public void resume(Plan plan, Checkpoint checkpoint, String record, Consumer<? super Handler> listener) {
+        start(plan, record, listener);
+        continueFrom(checkpoint);
+    }
+
+    private void continueFrom(Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            throw new IllegalArgumentException("Checkpoint must not be null");
+        }
+        if (!checkpoint.takenFrom(scanner.size, digest())) {
+            throw new IllegalArgumentException("Checkpoint was taken from another input");
+        }
+        checkpoint.apply(scanner);
+        restore(checkpoint.state());
+        process();
+    }
+
+    @Override
+    protected void checkpoint(RunState state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            scanner.writeState(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpointConsumer.accept(new Checkpoint(scanner.position(), scanner.size, digest(), bytes.toByteArray(),
+                state));
+    }
+
+    /**
+     * @return checksum of the beginning of the input, see {@link #DIGEST_BYTES}
+     */
+    private long digest() {
+        if (digest < 0) {
+            ByteBuffer head = scanner.windows[0];
+            int length = Math.min(head.limit(), DIGEST_BYTES);
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < length; i++) {
+                crc.update(head.get(i));
+            }
+            digest = crc.getValue();
+        }
+        return digest;
+    }
+
+    @Override
+    protected int next() {
+        return scanner.next();
+    }
+
+    @Override
+    protected String getElementName() {
+        return scanner.localName();
+    }
+
+    @Override
+    protected int getElementSymbol(SymbolTable symbols) {
+        return scanner.localSymbol(symbols);
+    }
+
+    @Override
+    protected boolean resolvesNamespaces() {
+        return true;
+    }
+
+    @Override
+    protected String getElementNamespace() {
+        return scanner.namespaceURI();
+    }
+
+    @Override
+    protected String getElementText() {
+        return scanner.text();
+    }
+
+    @Override
+    protected CharSequence getElementChars() {
+        return scanner.textView();
+    }
+
+    @Override
+    protected Map<String, String> getAttributes() {
+        return scanner.attributes();
+    }
+
+    @Override
+    protected Attributes getAttributeView() {
+        return scanner.attributeView();
+    }
+
+    @Override
+    protected boolean skipElement() {
+        scanner.skipElement();
+        return true;
+    }
+
+    private static final class Scanner extends ByteScanner {
+        private final ByteBuffer[] windows;
+        private final long size;
+        private final int windowBits;
+
+        Scanner(ByteBuffer[] windows, long size, int windowBits) {
+            this.windows = windows;
+            this.size = size;
+            this.windowBits = windowBits;
+            this.window = windows[0];
+            this.length = window.limit();
+            reset(0);
+        }
+
+        @Override
+        protected boolean load(long position) {
+            if (position < 0 || position >= size) {
+                return false;
+            }
+            int index = (int) (position >>> windowBits);
+            window = windows[index];
+            base = (long) index << windowBits;
+            length = window.limit();
+            return true;
+        }
+
+        @Override
+        protected boolean ended() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Cache of strings made of raw names. Documents use few distinct names, so after warm-up names
+ * are resolved without allocation.
+ */
+final class NameTable {
+    private static final int CAPACITY = 1024;
+    private static final int MAX_ENTRIES = CAPACITY / 2;
+
+    private final byte[][] keys = new byte[CAPACITY][];
+    private final String[] values = new String[CAPACITY];
+    private final int[] hashes = new int[CAPACITY];
+    private int size;
+
+    /**
+     * Get string of the name.
+     *
+     * @param scanner source of bytes
+     * @param start position of the first byte
+     * @param length length in bytes
+     * @param hash hash of the bytes, see {@link ByteScanner#hash}
+     * @return decoded name
+     */
+    String get(ByteScanner scanner, long start, int length, int hash) {
+        int mask = CAPACITY - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            byte[] key = keys[i];
+            if (key == null) {
+                byte[] bytes = scanner.bytes(start, length);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                if (size < MAX_ENTRIES) {
+                    keys[i] = bytes;
+                    values[i] = value;
+                    hashes[i] = hash;
+                    size++;
+                }
+                return value;
+            }
+            if (hashes[i] == hash && key.length == length && scanner.matches(start, key)) {
+                return values[i];
+            }
+        }
+    }
+}
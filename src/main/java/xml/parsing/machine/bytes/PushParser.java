@@ -0,0 +1,212 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import xml.parsing.machine.api.AbstractXmlEngine;
+import xml.parsing.machine.api.Attributes;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.SymbolTable;
+import xml.parsing.machine.api.XmlNodeHandler;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ * Non-blocking parser the document is pushed to.
+ * <p>Bytes are passed to {@link #feed(ByteBuffer)} as they arrive. The parser runs the handlers as far as
+ * the available bytes allow and returns, keeping the incomplete tail of the input for the next call.
+ * So a single thread can serve many documents arriving over NIO channels or reactive streams:</p>
+ * <pre>
+ *     PushParser parser = new PushParser(plan);
+ *     // on every chunk
+ *     parser.feed(buffer);
+ *     // when the stream ends
+ *     parser.finish();
+ * </pre>
+ * <p>The input must be UTF-8 (or ASCII). The parser is not thread-safe: chunks of a document must be fed
+ * one after another. There are no blocking {@code read()} methods: events are taken from the fed bytes only.</p>
+ */
+public class PushParser extends AbstractXmlEngine {
+    private final Scanner scanner = new Scanner();
+    private boolean complete;
+
+    /**
+     * @param plan compiled graph to run
+     */
+    public PushParser(Plan plan) {
+        start(plan);
+    }
+
+    /**
+     * @param rootHandler root of the handler graph to run
+     */
+    public PushParser(XmlNodeHandler rootHandler) {
+        start(rootHandler);
+    }
+
+    /**
+     * Process the next part of the document.
+     * <p>All remaining bytes of the buffer are consumed. Handlers are called for every complete event.
+     * An empty buffer tells that no input is available yet: batches whose time limit has passed are delivered,
+     * see {@link xml.parsing.machine.api.Handler#closeBatch(int, java.time.Duration, java.util.function.Consumer)}.
+     * </p>
+     *
+     * @param chunk next bytes of the document
+     */
+    public void feed(ByteBuffer chunk) {
+        if (scanner.finished) {
+            throw new IllegalStateException("Input is already finished");
+        }
+        if (control().isStopped()) {
+            chunk.position(chunk.limit());
+            return;
+        }
+        if (!chunk.hasRemaining()) {
+            flushExpiredBatches();
+            return;
+        }
+        scanner.append(chunk);
+        drain();
+    }
+
+    /**
+     * Process the next part of the document.
+     *
+     * @param bytes array with the part
+     * @param offset position of the part in the array
+     * @param length length of the part
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Signal the end of the input and process the rest of the document.
+     *
+     * @throws RuntimeException if the document is not complete
+     */
+    public void finish() {
+        scanner.finished = true;
+        drain();
+    }
+
+    /**
+     * Tells whether the document is processed completely.
+     *
+     * @return {@code true} after the end of the root element or when parsing is stopped,
+     *         see {@link xml.parsing.machine.api.ParseControl}
+     */
+    public boolean isComplete() {
+        return complete || scanner.isRootClosed();
+    }
+
+    private void drain() {
+        int event;
+        while (!complete && (event = scanner.next()) != ByteScanner.NEED_INPUT) {
+            complete = dispatch(event);
+        }
+    }
+
+    @Override
+    protected String getElementName() {
+        return scanner.localName();
+    }
+
+    @Override
+    protected int getElementSymbol(SymbolTable symbols) {
+        return scanner.localSymbol(symbols);
+    }
+
+    @Override
+    protected boolean resolvesNamespaces() {
+        return true;
+    }
+
+    @Override
+    protected String getElementNamespace() {
+        return scanner.namespaceURI();
+    }
+
+    @Override
+    protected String getElementText() {
+        return scanner.text();
+    }
+
+    @Override
+    protected CharSequence getElementChars() {
+        return scanner.textView();
+    }
+
+    @Override
+    protected Map<String, String> getAttributes() {
+        return scanner.attributes();
+    }
+
+    @Override
+    protected Attributes getAttributeView() {
+        return scanner.attributeView();
+    }
+
+    @Override
+    protected boolean skipElement() {
+        scanner.skipElement();
+        return true;
+    }
+
+    /**
+     * Keeps unprocessed bytes in a single growing window.
+     */
+    private static final class Scanner extends ByteScanner {
+        private byte[] buffer = new byte[8192];
+        private boolean finished;
+
+        Scanner() {
+            window = ByteBuffer.wrap(buffer);
+            reset(0);
+        }
+
+        void append(ByteBuffer chunk) {
+            int consumed = (int) (position() - base);
+            if (consumed > 0) {
+                System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+                length -= consumed;
+                base += consumed;
+            }
+            int size = chunk.remaining();
+            if (buffer.length - length < size) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + size));
+                window = ByteBuffer.wrap(buffer);
+            }
+            chunk.get(buffer, length, size);
+            length += size;
+        }
+
+        @Override
+        protected boolean load(long position) {
+            return position >= base && position < base + length;
+        }
+
+        @Override
+        protected boolean ended() {
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.stax;
+
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+/**
+ * Parses a large file of uniform records on many threads.
+ * <p>The file is cut into chunks of about {@link #withChunkSize(long) chunk size} bytes. Every cut is moved forward
+ * to the nearest start tag of a record element, so each chunk holds whole records. Chunks are parsed on a
+ * {@link ForkJoinPool}, each one with its own parser and against the same {@link Plan}. A chunk gets the start tags
+ * of the record's ancestors (with their attributes and namespace declarations) in front of it and matching end tags
+ * after it, so handlers see a well-formed document. Content before the first record and after the last one
+ * is parsed once.</p>
+ * <p>Restrictions:</p>
+ * <ul>
+ *     <li>the encoding must be ASCII-compatible (UTF-8, ISO-8859-*, etc.);</li>
+ *     <li>record elements must not nest and the record name must not appear as {@code <name} inside comments
+ *     or CDATA;</li>
+ *     <li>handlers of record ancestors are called for every chunk, so {@code open()}/{@code close()} of ancestors
+ *     should not be relied on;</li>
+ *     <li>entities declared in the internal DTD subset are not available for chunks other than the first.</li>
+ * </ul>
+ * <p>StAX does not promise that a factory is thread-safe, so readers are created while holding the monitor
+ * of the factory, as {@link StaxParserPool} does. Other code using the same factory concurrently
+ * should synchronize on it too.</p>
+ * <p>If a chunk fails, the chunks which have not started are skipped and the running ones are cancelled;
+ * {@code read} rethrows the failure once no chunk reads the file any more.</p>
+ */
+public class ParallelStaxParser {
+    private static final int SCAN_BLOCK = 64 * 1024;
+
+    private final XMLInputFactory factory;
+    private final ForkJoinPool pool;
+    private long chunkSize = 64L * 1024 * 1024;
+
+    public ParallelStaxParser(XMLInputFactory factory) {
+        this(factory, ForkJoinPool.commonPool());
+    }
+
+    public ParallelStaxParser(XMLInputFactory factory, ForkJoinPool pool) {
+        if (factory == null || pool == null) {
+            throw new IllegalArgumentException("Factory and pool must not be null");
+        }
+        this.factory = factory;
+        this.pool = pool;
+    }
+
+    /**
+     * Set approximate size of a chunk parsed by a single thread.
+     *
+     * @param chunkSize size in bytes
+     * @return {@code this}
+     */
+    public ParallelStaxParser withChunkSize(long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Parse file and collect records in document order.
+     *
+     * @param file xml file
+     * @param plan compiled handler graph
+     * @param record name of record element as written in the document (with prefix, if any); the plan is matched
+     *               against its local name
+     * @param mapper converts record handler to result. Called on pool threads
+     * @param <T> type of result
+     * @return results of all records in document order
+     * @throws IOException if file can not be read
+     */
+    public <T> List<T> read(Path file, Plan plan, String record, Function<? super Handler, ? extends T> mapper)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return this.<T>submit(channel, plan, record, mapper, null).join();
+        }
+    }
+
+    /**
+     * Parse file and pass records to the sink as soon as their chunk is ready.
+     * <p>Records of a chunk go in document order, chunks go in the order of completion.
+     * The sink is called on pool threads, but never concurrently.</p>
+     *
+     * @param file xml file
+     * @param plan compiled handler graph
+     * @param record name of record element as written in the document (with prefix, if any); the plan is matched
+     *               against its local name
+     * @param mapper converts record handler to result. Called on pool threads
+     * @param sink receives results
+     * @param <T> type of result
+     * @throws IOException if file can not be read
+     */
+    public <T> void read(Path file, Plan plan, String record, Function<? super Handler, ? extends T> mapper,
+                         Consumer<? super T> sink) throws IOException
+    {
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink must not be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            submit(channel, plan, record, mapper, sink).join();
+        }
+    }
+
+    private <T> Run<T> submit(
+            FileChannel channel, Plan plan, String record, Function<? super Handler, ? extends T> mapper,
+            Consumer<? super T> sink) throws IOException
+    {
+        if (plan == null || mapper == null) {
+            throw new IllegalArgumentException("Plan and mapper must not be null");
+        }
+        if (record == null || record.isEmpty()) {
+            throw new IllegalArgumentException("Record name must not be empty");
+        }
+        long size = channel.size();
+        byte[] pattern = ('<' + record).getBytes(StandardCharsets.UTF_8);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long first = find(channel, 0, size, pattern);
+        byte[] header = new byte[0];
+        byte[] trailer = new byte[0];
+        if (first > 0) {
+            long chunks = (size - first + chunkSize - 1) / chunkSize;
+            for (long i = 1; i < chunks; i++) {
+                long start = find(channel, first + (size - first) / chunks * i, size, pattern);
+                if (start < 0) {
+                    break;
+                }
+                if (start > bounds.get(bounds.size() - 1)) {
+                    bounds.add(start);
+                }
+            }
+            if (bounds.size() > 1) {
+                byte[][] context = context(channel, first);
+                header = context[0];
+                trailer = context[1];
+            }
+        }
+        bounds.add(size);
+        // the plan matches records by local name
+        String localName = record.substring(record.indexOf(':') + 1);
+        Object lock = new Object();
+        Run<T> run = new Run<>();
+        for (int i = 0; i + 1 < bounds.size(); i++) {
+            List<InputStream> parts = new ArrayList<>(3);
+            if (i > 0) {
+                parts.add(new ByteArrayInputStream(header));
+            }
+            parts.add(new BufferedInputStream(
+                    new ChannelInputStream(channel, bounds.get(i), bounds.get(i + 1)), SCAN_BLOCK));
+            if (i + 2 < bounds.size()) {
+                parts.add(new ByteArrayInputStream(trailer));
+            }
+            run.tasks.add(pool.submit(() -> {
+                if (run.aborted) {
+                    return Collections.<T>emptyList();
+                }
+                List<T> results = new ArrayList<>();
+                try {
+                    XMLStreamReader reader;
+                    synchronized (factory) {
+                        reader = factory.createXMLStreamReader(
+                                new SequenceInputStream(Collections.enumeration(parts)));
+                    }
+                    StaxParser parser = new StaxParser(reader);
+                    run.parsers.add(parser);
+                    try {
+                        if (!run.aborted) {
+                            parser.read(plan, localName, h -> results.add(mapper.apply(h)));
+                        }
+                    } finally {
+                        run.parsers.remove(parser);
+                        reader.close();
+                    }
+                } catch (XMLStreamException | RuntimeException | Error e) {
+                    run.abort();
+                    throw e;
+                }
+                if (sink == null) {
+                    return results;
+                }
+                synchronized (lock) {
+                    results.forEach(sink);
+                }
+                return Collections.<T>emptyList();
+            }));
+        }
+        return run;
+    }
+
+    /**
+     * Tasks of a parse. When one of them fails, the others are cancelled, and the parse ends only when
+     * none of them reads the file any more.
+     */
+    private static final class Run<T> {
+        final List<ForkJoinTask<List<T>>> tasks = new ArrayList<>();
+        final Set<StaxParser> parsers = ConcurrentHashMap.newKeySet();
+        volatile boolean aborted;
+
+        void abort() {
+            aborted = true;
+            parsers.forEach(StaxParser::cancel);
+        }
+
+        List<T> join() {
+            List<T> results = new ArrayList<>();
+            try {
+                for (ForkJoinTask<List<T>> task : tasks) {
+                    results.addAll(task.join());
+                }
+            } catch (RuntimeException | Error e) {
+                abort();
+                for (ForkJoinTask<List<T>> task : tasks) {
+                    task.quietlyJoin();
+                }
+                throw e;
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Find the start tag of a record.
+     *
+     * @return offset of the tag or -1
+     */
+    private static long find(FileChannel channel, long from, long size, byte[] pattern) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BLOCK + pattern.length);
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int count = 0;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + count);
+                if (n < 0) {
+                    break;
+                }
+                count += n;
+            }
+            byte[] data = buffer.array();
+            for (int i = 0; i + pattern.length <= count; i++) {
+                if (data[i] == '<' && matches(data, i, pattern)) {
+                    if (i + pattern.length == count) {
+                        if (position + count >= size) {
+                            return -1;
+                        }
+                        // the delimiter is in the next block
+                        break;
+                    }
+                    byte next = data[i + pattern.length];
+                    if (next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n') {
+                        return position + i;
+                    }
+                }
+            }
+            if (position + count >= size) {
+                return -1;
+            }
+            position += Math.max(1, count - pattern.length);
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] data, int offset, byte[] pattern) {
+        for (int i = 1; i < pattern.length; i++) {
+            if (data[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restore ancestors of the first record.
+     *
+     * @return xml declaration with start tags of ancestors, and end tags of ancestors
+     */
+    private byte[][] context(FileChannel channel, long first) throws IOException {
+        Deque<String> names = new ArrayDeque<>();
+        Deque<String> starts = new ArrayDeque<>();
+        String encoding = null;
+        XMLStreamReader reader;
+        try {
+            synchronized (factory) {
+                reader = factory.createXMLStreamReader(
+                        new BufferedInputStream(new ChannelInputStream(channel, 0, first)));
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        try {
+            encoding = reader.getEncoding();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+                    names.push(name);
+                    starts.push(startTag(reader, name));
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    names.pop();
+                    starts.pop();
+                }
+            }
+        } catch (XMLStreamException e) {
+            // The prefix is not a complete document. Stop at its end.
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing to release
+            }
+        }
+        Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        StringBuilder header = new StringBuilder("<?xml version=\"1.0\" encoding=\"")
+                .append(charset.name()).append("\"?>");
+        List<String> opening = new ArrayList<>(starts);
+        for (int i = opening.size() - 1; i >= 0; i--) {
+            header.append(opening.get(i));
+        }
+        StringBuilder trailer = new StringBuilder();
+        for (String name : names) {
+            trailer.append("</").append(name).append('>');
+        }
+        return new byte[][] {header.toString().getBytes(charset), trailer.toString().getBytes(charset)};
+    }
+
+    private static String startTag(XMLStreamReader reader, String name) {
+        StringBuilder tag = new StringBuilder("<").append(name);
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            tag.append(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"");
+            escape(tag, reader.getNamespaceURI(i));
+            tag.append('"');
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            tag.append(' ').append(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))
+                    .append("=\"");
+            escape(tag, reader.getAttributeValue(i));
+            tag.append('"');
+        }
+        return tag.append('>').toString();
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+}
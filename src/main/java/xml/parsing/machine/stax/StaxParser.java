@@ -19,7 +19,11 @@ under the License.
 package xml.parsing.machine.stax;
 
 import xml.parsing.machine.api.AbstractXmlParser;
+import xml.parsing.machine.api.Attributes;
+import xml.parsing.machine.api.CharView;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.util.HashMap;
@@ -31,12 +35,23 @@ import java.util.Map;
  */
 public class StaxParser extends AbstractXmlParser {
 
-    private final XMLStreamReader reader;
+    private XMLStreamReader reader;
+    private final CharView chars = new CharView();
+    private final Attributes attributes = new ReaderAttributes();
 
     public StaxParser(XMLStreamReader reader) {
         this.reader = reader;
     }
 
+    /**
+     * Switch the parser to the next document, see {@link StaxParserPool}.
+     *
+     * @param reader reader of the document
+     */
+    void reset(XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
     @Override
     protected int next() {
         try {
@@ -51,11 +66,37 @@ public class StaxParser extends AbstractXmlParser {
         return reader.getLocalName();
     }
 
+    /**
+     * Namespaces are resolved if the reader is namespace aware, see {@link XMLInputFactory#IS_NAMESPACE_AWARE}.
+     */
+    @Override
+    protected boolean resolvesNamespaces() {
+        try {
+            return Boolean.TRUE.equals(reader.getProperty(XMLInputFactory.IS_NAMESPACE_AWARE));
+        } catch (IllegalArgumentException e) {
+            // the reader does not tell
+            return false;
+        }
+    }
+
+    @Override
+    protected String getElementNamespace() {
+        return reader.getNamespaceURI();
+    }
+
     @Override
     protected String getElementText() {
         return reader.getText();
     }
 
+    /**
+     * Text is taken right from the reader buffer.
+     */
+    @Override
+    protected CharSequence getElementChars() {
+        return chars.set(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+    }
+
     @Override
     protected Map<String, String> getAttributes() {
         int count = reader.getAttributeCount();
@@ -66,4 +107,69 @@ public class StaxParser extends AbstractXmlParser {
         return attributes;
     }
 
+    @Override
+    protected Attributes getAttributeView() {
+        return attributes;
+    }
+
+    /**
+     * Closes the reader. The underlying source is not closed.
+     */
+    @Override
+    protected void release() {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Walks to the matching end tag counting nesting only. Names, attributes and text are never requested.
+     */
+    @Override
+    protected boolean skipElement() {
+        try {
+            int depth = 1;
+            while (depth > 0) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        break;
+                    default:
+                }
+            }
+            return true;
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads attributes of the current element from the reader by index.
+     */
+    private final class ReaderAttributes implements Attributes {
+        @Override
+        public int size() {
+            return reader.getAttributeCount();
+        }
+
+        @Override
+        public String name(int index) {
+            return reader.getAttributeLocalName(index);
+        }
+
+        @Override
+        public String namespace(int index) {
+            return reader.getAttributeNamespace(index);
+        }
+
+        @Override
+        public String value(int index) {
+            return reader.getAttributeValue(index);
+        }
+    }
 }
@@ -0,0 +1,230 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.stax;
+
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+
+/**
+ * Parses many small documents with little setup per document.
+ * <p>The pool keeps one configured {@link XMLInputFactory} and idle parsers. A parser reused for the same
+ * {@link Plan} keeps the run-time copies of its handlers, so a parse costs a new {@link XMLStreamReader}
+ * and nothing else. The pool is thread-safe; every call borrows a parser for its duration.</p>
+ * <p>StAX does not promise that a factory is thread-safe, so readers are created while holding the monitor
+ * of the factory, as {@link ParallelStaxParser} does. Other code using the same factory concurrently
+ * should synchronize on it too.</p>
+ * <pre>
+ *     StaxParserPool pool = new StaxParserPool(16);
+ *     Plan plan = RootHandler.instance("order", ...).compile();
+ *     // in any thread
+ *     pool.parse(request.body(), plan);
+ * </pre>
+ */
+public final class StaxParserPool {
+    private final XMLInputFactory factory;
+    private final BlockingQueue<StaxParser> idle;
+
+    /**
+     * Creates a pool with a factory of the platform.
+     *
+     * @param maxIdle maximum number of parsers kept between calls
+     */
+    public StaxParserPool(int maxIdle) {
+        this(XMLInputFactory.newInstance(), maxIdle);
+    }
+
+    /**
+     * Creates a pool with the given factory. The factory must not be configured after that.
+     *
+     * @param factory configured factory
+     * @param maxIdle maximum number of parsers kept between calls
+     */
+    public StaxParserPool(XMLInputFactory factory, int maxIdle) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Factory must not be null");
+        }
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Parse a document.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(byte[] xml, Plan plan) throws XMLStreamException {
+        parse(new ByteArrayInputStream(xml), plan);
+    }
+
+    /**
+     * Parse a document from the position of the buffer to its limit. The position is not changed.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(ByteBuffer xml, Plan plan) throws XMLStreamException {
+        parse(stream(xml), plan);
+    }
+
+    /**
+     * Parse a document. The stream is not closed.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(InputStream xml, Plan plan) throws XMLStreamException {
+        parse(xml, plan, null, null);
+    }
+
+    /**
+     * Parse a document passing completed records to the listener,
+     * see {@link xml.parsing.machine.api.AbstractXmlParser#read(Plan, String, Consumer)}.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @param record name of record element
+     * @param listener receives run-time copy of the record handler
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(byte[] xml, Plan plan, String record, Consumer<? super Handler> listener)
+            throws XMLStreamException {
+        parse(new ByteArrayInputStream(xml), plan, record, listener);
+    }
+
+    /**
+     * Parse a document passing completed records to the listener,
+     * see {@link xml.parsing.machine.api.AbstractXmlParser#read(Plan, String, Consumer)}.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @param record name of record element
+     * @param listener receives run-time copy of the record handler
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(ByteBuffer xml, Plan plan, String record, Consumer<? super Handler> listener)
+            throws XMLStreamException {
+        parse(stream(xml), plan, record, listener);
+    }
+
+    /**
+     * Parse a document passing completed records to the listener,
+     * see {@link xml.parsing.machine.api.AbstractXmlParser#read(Plan, String, Consumer)}.
+     * The stream is not closed.
+     *
+     * @param xml document
+     * @param plan compiled graph
+     * @param record name of record element, {@code null} to run the plan without listener
+     * @param listener receives run-time copy of the record handler
+     * @throws XMLStreamException if the document can not be read
+     */
+    public void parse(InputStream xml, Plan plan, String record, Consumer<? super Handler> listener)
+            throws XMLStreamException {
+        if (xml == null) {
+            throw new IllegalArgumentException("Input must not be null");
+        }
+        if (plan == null) {
+            throw new IllegalArgumentException("Plan must not be null");
+        }
+        XMLStreamReader reader;
+        synchronized (factory) {
+            reader = factory.createXMLStreamReader(xml);
+        }
+        StaxParser parser = idle.poll();
+        if (parser == null) {
+            parser = new StaxParser(reader);
+        } else {
+            parser.reset(reader);
+        }
+        try {
+            if (record == null) {
+                parser.read(plan);
+            } else {
+                parser.read(plan, record, listener);
+            }
+        } finally {
+            reader.close();
+            parser.reset(null);
+            idle.offer(parser);
+        }
+    }
+
+    /**
+     * @return number of parsers waiting for the next call
+     */
+    public int idle() {
+        return idle.size();
+    }
+
+    private static InputStream stream(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+        }
+        return new BufferInputStream(buffer.slice());
+    }
+
+    /**
+     * Reads a direct buffer.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
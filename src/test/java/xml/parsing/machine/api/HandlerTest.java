@@ -2,6 +2,12 @@ package xml.parsing.machine.api;
 
 import org.junit.jupiter.api.Test;
 
+import javax.xml.namespace.QName;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HandlerTest {
@@ -9,7 +15,10 @@ class HandlerTest {
     public void shouldDenyNullTokens() {
         assertThrows(
                 IllegalArgumentException.class,
-                () -> RootHandler.instance().then(null));
+                () -> RootHandler.instance().then((String) null));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> RootHandler.instance().then((QName) null));
     }
 
     @Test
@@ -33,6 +42,36 @@ class HandlerTest {
                 () -> RootHandler.instance().then("test").text(t -> {}).text(t -> {}));
     }
 
+    @Test
+    public void shouldDenyCharsForPropagatingHandler() {
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").propagate().chars(t -> {}));
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").text(t -> {}).chars(t -> {}));
+    }
+
+    @Test
+    public void shouldDenyMixingAttributeModes() {
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").withAttributes("a").withAttributes());
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").withAttributes().withAttributes("a"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> RootHandler.instance().then("test").withAttributes("a", null));
+    }
+
+    @Test
+    public void shouldDenyEmptyPropertyName() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Property.of(""));
+    }
+
     @Test
     public void shouldDenyDuplicateOpen() {
         assertThrows(
@@ -61,6 +100,28 @@ class HandlerTest {
                 () -> RootHandler.instance().then("test").close(null));
     }
 
+    @Test
+    public void shouldDenyInvalidBatch() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> RootHandler.instance().then("test").closeBatch(0, b -> {}));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> RootHandler.instance().then("test").closeBatch(10, Duration.ZERO, b -> {}));
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").closeBatch(10, b -> {}).closeBatch(10, b -> {}));
+    }
+
+    @Test
+    public void shouldDenyDuplicateDescendants() {
+        Handler test = RootHandler.instance().then("test");
+        test.descendant("b");
+        assertThrows(IllegalArgumentException.class, () -> test.descendant("b"));
+        test.any();
+        assertThrows(IllegalStateException.class, test::any);
+    }
+
     @Test
     public void shouldDenyNullText() {
         assertThrows(
@@ -68,6 +129,78 @@ class HandlerTest {
                 () -> RootHandler.instance().then("test").text(null));
     }
 
+    @Test
+    public void shouldDenyChangesOfCompiledGraph() {
+        RootHandler root = RootHandler.instance();
+        Handler book = root.then("book");
+        root.compile();
+        assertThrows(IllegalStateException.class, () -> root.then("disc"));
+        assertThrows(IllegalStateException.class, () -> book.then("title"));
+        assertThrows(IllegalStateException.class, () -> book.text(t -> {}));
+        assertThrows(IllegalStateException.class, book::propagate);
+        assertThrows(IllegalStateException.class, book::withAttributes);
+    }
+
+    @Test
+    public void shouldCompileOnce() {
+        RootHandler root = RootHandler.instance("library", r -> r.then("book"));
+        Plan plan = root.compile();
+        assertSame(plan, root.compile());
+        assertEquals(3, plan.size());
+    }
+
+    @Test
+    public void shouldCompileOnlyRoot() {
+        assertThrows(
+                IllegalStateException.class,
+                () -> RootHandler.instance().then("test").compile());
+    }
+
+    @Test
+    public void shouldFindPropertySlotsInAlternatingLayouts() {
+        Map<String, Integer> first = new HashMap<>();
+        first.put("title", 0);
+        Map<String, Integer> second = new HashMap<>();
+        second.put("isbn", 0);
+        second.put("title", 1);
+        Layout a = new Layout(new String[] {"title"}, first, Layout.NONE, null, false);
+        Layout b = new Layout(new String[] {"isbn", "title"}, second, Layout.NONE, null, false);
+        Property title = Property.of("title");
+        Property isbn = Property.of("isbn");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, title.slot(a));
+            assertEquals(1, title.slot(b));
+            assertEquals(Layout.NONE, isbn.slot(a));
+            assertEquals(0, isbn.slot(b));
+        }
+    }
+
+    @Test
+    public void shouldRefuseNamespacesWhenParserDoesNotResolveThem() {
+        RootHandler root = RootHandler.instance();
+        root.then(new QName("urn:a", "library")).then("book");
+        Plan plan = root.compile();
+        AbstractXmlEngine engine = new AbstractXmlEngine() {
+            @Override
+            protected String getElementName() {
+                return null;
+            }
+
+            @Override
+            protected String getElementText() {
+                return null;
+            }
+
+            @Override
+            protected Map<String, String> getAttributes() {
+                return Collections.emptyMap();
+            }
+        };
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> engine.start(plan));
+        assertTrue(e.getMessage().contains("does not resolve namespaces"), e.getMessage());
+        engine.start(RootHandler.instance("library", r -> r.then("book")).compile());
+    }
+
     @Override
     public String toString() {
         return "RootHandler()";
@@ -0,0 +1,108 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import org.junit.jupiter.api.Test;
+import xml.parsing.machine.stax.StaxParser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathSetTest {
+    private static final String XML = "<library>"
+            + "<book id='1' lang='en'><title>Dune</title><author>Herbert</author></book>"
+            + "<book id='2'><title>Solaris</title><author>Lem</author></book>"
+            + "<magazine id='3'><title>Wired</title></magazine>"
+            + "</library>";
+
+    private static void read(RootHandler root) throws XMLStreamException {
+        new StaxParser(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(XML))).read(root);
+    }
+
+    @Test
+    public void shouldMergeCommonPrefixes() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        RootHandler root = new PathSet()
+                .add("library/book/@id", id -> values.add("id:" + id))
+                .add("/library/book/title", title -> values.add("title:" + title))
+                .add("library/book/author", author -> values.add("author:" + author))
+                .add("library/magazine/title", title -> values.add("magazine:" + title))
+                .build();
+        assertEquals(1, root.children().size());
+        assertEquals(2, root.children().iterator().next().children().size());
+        read(root);
+        assertEquals("[id:1, title:Dune, author:Herbert, id:2, title:Solaris, author:Lem, magazine:Wired]",
+                values.toString());
+    }
+
+    @Test
+    public void shouldCallAllConsumersOfPath() throws XMLStreamException {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        List<String> langs = new ArrayList<>();
+        read(new PathSet()
+                .add("library/book/title", first::add)
+                .add("library/book/title", second::add)
+                .add("library/book/@lang", langs::add)
+                .build());
+        assertEquals("[Dune, Solaris]", first.toString());
+        assertEquals(first, second);
+        assertEquals("[en]", langs.toString());
+    }
+
+    @Test
+    public void shouldExposeAttributesOnClose() throws XMLStreamException {
+        List<String> books = new ArrayList<>();
+        read(new PathSet()
+                .add("library/book/@id", id -> {})
+                .close("library/book", book -> books.add(book.getProperty("@id")))
+                .build());
+        assertEquals("[1, 2]", books.toString());
+    }
+
+    @Test
+    public void shouldMatchDescendantsAndWildcards() throws XMLStreamException {
+        List<String> titles = new ArrayList<>();
+        List<String> anywhere = new ArrayList<>();
+        read(new PathSet()
+                .add("library/*/title", titles::add)
+                .add("//author", anywhere::add)
+                .build());
+        assertEquals("[Dune, Solaris, Wired]", titles.toString());
+        assertEquals("[Herbert, Lem]", anywhere.toString());
+    }
+
+    @Test
+    public void shouldDenyInvalidPaths() {
+        PathSet paths = new PathSet();
+        assertThrows(IllegalArgumentException.class, () -> paths.add("", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.add("library///book", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.add("library/b*", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.add("library//@id", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.add("library/@id/book", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.add("@id", t -> {}));
+        assertThrows(IllegalArgumentException.class, () -> paths.close("library/@id", t -> {}));
+        assertThrows(IllegalStateException.class, paths::build);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import xml.parsing.machine.stax.StaxParser;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineTest {
+    private static final int BOOKS = 1000;
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private final Plan plan = RootHandler.instance("library", r -> r.then("book").withAttributes("id")
+            .or("title", Handler::propagate)).compile();
+
+    @AfterEach
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static StaxParser parser() throws XMLStreamException {
+        StringBuilder xml = new StringBuilder("<library>");
+        for (int i = 0; i < BOOKS; i++) {
+            xml.append("<book id='").append(i).append("'><title>t").append(i).append("</title></book>");
+        }
+        xml.append("</library>");
+        return new StaxParser(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml.toString())));
+    }
+
+    private static String work(Snapshot book) {
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(20_000));
+        return book.getProperty("@id") + ":" + book.getProperty("title");
+    }
+
+    @Test
+    public void shouldDeliverInDocumentOrder() throws XMLStreamException {
+        List<String> results = new ArrayList<>();
+        new Pipeline(pool, 16).ordered(true).read(parser(), plan, "book", PipelineTest::work, results::add);
+        assertEquals(BOOKS, results.size());
+        for (int i = 0; i < BOOKS; i++) {
+            assertEquals(i + ":t" + i, results.get(i));
+        }
+    }
+
+    @Test
+    public void shouldProcessAllRecords() throws XMLStreamException {
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger count = new AtomicInteger();
+        new Pipeline(pool, 8).read(parser(), plan, "book", book -> {
+            count.incrementAndGet();
+            results.add(work(book));
+        });
+        assertEquals(BOOKS, count.get());
+        assertEquals(BOOKS, results.stream().distinct().count());
+    }
+
+    @Test
+    public void shouldStopOnFailure() throws XMLStreamException {
+        StaxParser parser = parser();
+        AtomicInteger count = new AtomicInteger();
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> new Pipeline(pool, 4)
+                .read(parser, plan, "book", book -> {
+                    if (count.incrementAndGet() == 10) {
+                        throw new IllegalStateException("bad record");
+                    }
+                }));
+        assertEquals("bad record", e.getMessage());
+        assertTrue(parser.control().isStopped());
+        assertTrue(count.get() < BOOKS);
+    }
+}
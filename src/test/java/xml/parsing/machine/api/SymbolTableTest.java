@@ -0,0 +1,62 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+    private final SymbolTable symbols = RootHandler.instance("library", r -> r
+            .or("book", b -> b.then("title"))
+            .or("книга", b -> b.then("title"))).compile().symbols();
+
+    @Test
+    public void shouldNumberDistinctTokens() {
+        assertEquals(4, symbols.size());
+        for (int i = 0; i < symbols.size(); i++) {
+            assertEquals(i, symbols.lookup(symbols.name(i)));
+        }
+        assertEquals(SymbolTable.UNKNOWN, symbols.lookup("disc"));
+    }
+
+    @Test
+    public void shouldFindNameInCharArray() {
+        char[] chars = "<book><disc>".toCharArray();
+        assertEquals("book", symbols.name(symbols.lookup(chars, 1, 4)));
+        assertEquals(SymbolTable.UNKNOWN, symbols.lookup(chars, 7, 4));
+        assertEquals(SymbolTable.UNKNOWN, symbols.lookup(chars, 1, 3));
+    }
+
+    @Test
+    public void shouldFindCandidatesOfUtf8Name() {
+        byte[] name = "книга".getBytes(StandardCharsets.UTF_8);
+        int hash = 0;
+        for (byte b : name) {
+            hash = 31 * hash + b;
+        }
+        int symbol = symbols.firstCandidate(hash, name.length);
+        assertEquals("книга", symbols.name(symbol));
+        assertArrayEquals(name, symbols.utf8(symbol));
+        assertEquals(SymbolTable.UNKNOWN, symbols.nextCandidate(symbol));
+        assertEquals(SymbolTable.UNKNOWN, symbols.firstCandidate(hash, name.length + 1));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextParsersTest {
+    @Test
+    public void shouldParseIntegers() {
+        assertEquals(42, TextParsers.parseInt(" 42\n"));
+        assertEquals(-7, TextParsers.parseInt("-7"));
+        assertEquals(Integer.MIN_VALUE, TextParsers.parseInt("-2147483648"));
+        assertEquals(Long.MAX_VALUE, TextParsers.parseLong("+9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, TextParsers.parseLong("-9223372036854775808"));
+        for (String malformed : new String[]{"", " ", "-", "1 2", "1.0", "9223372036854775808", "x"}) {
+            assertThrows(TextParsers.Malformed.class, () -> TextParsers.parseLong(malformed), malformed);
+        }
+        assertThrows(TextParsers.Malformed.class, () -> TextParsers.parseInt("2147483648"));
+    }
+
+    @Test
+    public void shouldParseDoubles() {
+        String[] values = {"0", "-0", "1.5", ".5", "1.", "1e3", "1E-3", "-12.34e+2", "0.1", "123456789012345678901",
+                "0.000000000000000000000000123", "1.7976931348623157E308", "4.9e-324", "1e400", "00012.50"};
+        for (String value : values) {
+            assertEquals(Double.parseDouble(value), TextParsers.parseDouble(value), value);
+        }
+        assertEquals(Double.POSITIVE_INFINITY, TextParsers.parseDouble("INF"));
+        assertEquals(Double.NEGATIVE_INFINITY, TextParsers.parseDouble("-INF"));
+        assertTrue(Double.isNaN(TextParsers.parseDouble(" NaN ")));
+        for (String malformed : new String[]{"", ".", "e5", "1e", "1.2.3", "1x", "-NaN", "Infinity"}) {
+            assertThrows(TextParsers.Malformed.class, () -> TextParsers.parseDouble(malformed), malformed);
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            String value = random.nextInt(100000) + "." + random.nextInt(100000);
+            assertEquals(Double.parseDouble(value), TextParsers.parseDouble(value), value);
+            value = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+            assertEquals(Double.parseDouble(value), TextParsers.parseDouble(value), value);
+        }
+    }
+
+    @Test
+    public void shouldParseBooleans() {
+        assertTrue(TextParsers.parseBoolean("true"));
+        assertTrue(TextParsers.parseBoolean(" 1 "));
+        assertFalse(TextParsers.parseBoolean("false"));
+        assertFalse(TextParsers.parseBoolean("0"));
+        assertThrows(TextParsers.Malformed.class, () -> TextParsers.parseBoolean("TRUE"));
+    }
+
+    @Test
+    public void shouldParseTimestamps() {
+        String[] values = {"2020-02-29T23:59:59Z", "1969-12-31T23:59:59.999Z", "2001-09-09T01:46:40+02:00",
+                "1600-03-01T00:00:00-05:30", "2020-01-02T03:04:05.1234Z"};
+        for (String value : values) {
+            assertEquals(OffsetDateTime.parse(value).toInstant().toEpochMilli(), TextParsers.parseTimestamp(value));
+        }
+        assertEquals(OffsetDateTime.parse("2020-01-02T03:04:00Z").toInstant().toEpochMilli(),
+                TextParsers.parseTimestamp("2020-01-02T03:04"));
+        assertEquals(OffsetDateTime.parse("2020-01-02T00:00:00Z").toInstant().toEpochMilli(),
+                TextParsers.parseTimestamp("2020-01-02"));
+        for (String malformed : new String[]{"2020-02-30", "2019-02-29", "2020-13-01", "2020-1-01", "20-01-01",
+                "2020-01-01T24:00", "2020-01-01T10", "2020-01-01T10:00:00.", "2020-01-01X"}) {
+            assertThrows(TextParsers.Malformed.class, () -> TextParsers.parseTimestamp(malformed), malformed);
+        }
+    }
+}
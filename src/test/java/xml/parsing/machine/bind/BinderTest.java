@@ -0,0 +1,210 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bind;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.bytes.MappedParser;
+import xml.parsing.machine.bytes.PushParser;
+import xml.parsing.machine.stax.StaxParser;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinderTest {
+    @TempDir
+    Path folder;
+
+    @XmlRecord("library/book")
+    static class Book {
+        @XmlPath("@id") int id;
+        @XmlPath("@available") Boolean available;
+        @XmlPath("title") String title;
+        @XmlPath("price") double price;
+        @XmlPath("pages") long pages;
+        @XmlPath("meta/publisher/city") String city;
+        @XmlPath("meta/@year") Integer year;
+        @XmlPath("tags/tag") final List<String> tags = new ArrayList<>();
+        @XmlPath("author") private String author;
+
+        void setAuthor(String author) {
+            this.author = author;
+        }
+    }
+
+    private static final String LIBRARY = "<library>"
+            + "<book id='1' available='true'><title>Solaris</title><author>Stanisław Lem</author>"
+            + "<price> 12.5 </price><pages>204</pages><meta year='1961'><publisher><city>Warsaw</city></publisher>"
+            + "</meta><tags><tag>sf</tag><tag>classic</tag></tags></book>"
+            + "<shelf><book id='9'><title>not a book</title></book></shelf>"
+            + "<book id='2'><title>Ubik</title></book>"
+            + "</library>";
+
+    private static List<Book> read(String xml) {
+        List<Book> books = new ArrayList<>();
+        new MappedParser(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)))
+                .read(new BinderTest_BookBinder().handler(books::add));
+        return books;
+    }
+
+    @Test
+    public void shouldFillRecords() {
+        List<Book> books = read(LIBRARY);
+        assertEquals(2, books.size());
+        Book first = books.get(0);
+        assertEquals(1, first.id);
+        assertTrue(first.available);
+        assertEquals("Solaris", first.title);
+        assertEquals("Stanisław Lem", first.author);
+        assertEquals(12.5, first.price);
+        assertEquals(204L, first.pages);
+        assertEquals("Warsaw", first.city);
+        assertEquals(1961, (int) first.year);
+        assertEquals(Arrays.asList("sf", "classic"), first.tags);
+        Book second = books.get(1);
+        assertEquals(2, second.id);
+        assertEquals("Ubik", second.title);
+        assertNull(second.available);
+        assertNull(second.author);
+        assertNull(second.year);
+        assertEquals(0.0, second.price);
+        assertTrue(second.tags.isEmpty());
+    }
+
+    @Test
+    public void shouldKeepWholeText() throws XMLStreamException {
+        String xml = "<library><book id='3'><title>Dungeons &amp; Dragons</title><price>1&#48;.5</price>"
+                + "<tags><tag>a<![CDATA[&]]>b</tag></tags></book></library>";
+        List<Book> books = new ArrayList<>();
+        try (StringReader reader = new StringReader(xml)) {
+            new StaxParser(XMLInputFactory.newInstance().createXMLStreamReader(reader))
+                    .read(new BinderTest_BookBinder().handler(books::add));
+        }
+        books.addAll(read(xml));
+        for (Book book : books) {
+            assertEquals("Dungeons & Dragons", book.title);
+            assertEquals(10.5, book.price);
+            assertEquals(Collections.singletonList("a&b"), book.tags);
+        }
+        assertEquals(2, books.size());
+    }
+
+    @Test
+    public void shouldShareCompiledBinderBetweenParsers() {
+        List<Book> books = new ArrayList<>();
+        Plan plan = new BinderTest_BookBinder().handler(books::add).compile();
+        PushParser first = new PushParser(plan);
+        PushParser second = new PushParser(plan);
+        first.feed(ByteBuffer.wrap("<library><book id='1'><title>Sol".getBytes(StandardCharsets.UTF_8)));
+        second.feed(ByteBuffer.wrap("<library><book id='2'><title>Ubik</title>".getBytes(StandardCharsets.UTF_8)));
+        first.feed(ByteBuffer.wrap("aris</title></book>".getBytes(StandardCharsets.UTF_8)));
+        second.feed(ByteBuffer.wrap("</book></library>".getBytes(StandardCharsets.UTF_8)));
+        first.feed(ByteBuffer.wrap("</library>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, books.size());
+        assertEquals(1, books.get(0).id);
+        assertEquals("Solaris", books.get(0).title);
+        assertEquals(2, books.get(1).id);
+        assertEquals("Ubik", books.get(1).title);
+    }
+
+    @Test
+    public void shouldRejectMalformedValues() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> read("<library><book id='x'/></library>"));
+        assertTrue(e.getMessage().startsWith("Malformed int value 'x'"), e.getMessage());
+        e = assertThrows(IllegalArgumentException.class,
+                () -> read("<library><book available='yes'/></library>"));
+        assertTrue(e.getMessage().startsWith("Malformed boolean value 'yes'"), e.getMessage());
+        e = assertThrows(IllegalArgumentException.class,
+                () -> read("<library><book><pages>many</pages></book></library>"));
+        assertTrue(e.getMessage().startsWith("Malformed long value 'many'"), e.getMessage());
+    }
+
+    @Test
+    public void shouldFindGeneratedBinder() {
+        List<Book> books = new ArrayList<>();
+        new MappedParser(ByteBuffer.wrap(LIBRARY.getBytes(StandardCharsets.UTF_8)))
+                .read(Binder.of(Book.class).handler(books::add).compile());
+        assertEquals("Solaris", books.get(0).title);
+        assertThrows(IllegalArgumentException.class, () -> Binder.of(String.class));
+        assertThrows(IllegalArgumentException.class, () -> new BinderTest_BookBinder().handler(null));
+    }
+
+    @Test
+    public void shouldReportInvalidAnnotations() {
+        List<String> errors = compile("package test;\n"
+                + "import xml.parsing.machine.bind.*;\n"
+                + "@XmlRecord(\"library/book\")\n"
+                + "public class Book {\n"
+                + "    @XmlPath(\"title\") Object title;\n"
+                + "    @XmlPath(\"meta/@id/x\") String id;\n"
+                + "    @XmlPath(\"author\") private String author;\n"
+                + "    @XmlPath(\"name\") String name;\n"
+                + "    @XmlPath(\"name\") String alias;\n"
+                + "}\n");
+        assertEquals(Arrays.asList(
+                "Unsupported type of @XmlPath field: java.lang.Object",
+                "Only the last step of path can be an attribute: 'meta/@id/x'",
+                "Private @XmlPath field needs a non-private setAuthor() method",
+                "Element 'name' is already bound to field name"), errors);
+        assertEquals(Collections.singletonList("@XmlRecord class must have a non-private constructor without arguments"),
+                compile("package test;\n"
+                        + "@xml.parsing.machine.bind.XmlRecord(\"book\")\n"
+                        + "public class Book {\n"
+                        + "    Book(int id) {}\n"
+                        + "}\n"));
+    }
+
+    private List<String> compile(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///test/Book.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-processor", BinderProcessor.class.getName(), "-d", folder.toString());
+        compiler.getTask(null, null, diagnostics, options, null, Collections.singletonList(file)).call();
+        return diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> d.getMessage(null))
+                .collect(Collectors.toList());
+    }
+}
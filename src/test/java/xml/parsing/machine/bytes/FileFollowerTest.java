@@ -0,0 +1,121 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xml.parsing.machine.api.RootHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileFollowerTest {
+    @TempDir
+    Path folder;
+
+    private static void append(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Test
+    public void shouldProcessRecordsAsTheyAreAppended() throws Exception {
+        Path log = folder.resolve("events.xml");
+        List<String> events = new CopyOnWriteArrayList<>();
+        try (OutputStream out = Files.newOutputStream(log)) {
+            append(out, "<log><event id='1'/>");
+            PushParser parser = new PushParser(RootHandler.instance("log", l -> l
+                    .then("event").withAttributes("id").close(e -> events.add(e.getProperty("@id")))));
+            CompletableFuture<Long> follower = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new FileFollower(log).delays(Duration.ofMillis(1), Duration.ofMillis(10)).follow(parser);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            waitFor(events, 1);
+            append(out, "<event id='2'/><ev");
+            Thread.sleep(20);
+            assertEquals("[1, 2]", events.toString());
+            append(out, "ent id='3'>text</event>");
+            waitFor(events, 3);
+            assertFalse(follower.isDone());
+            append(out, "</log>");
+            assertEquals(Files.size(log), (long) follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals("[1, 2, 3]", events.toString());
+    }
+
+    @Test
+    public void shouldStopWaitingWhenCancelled() throws Exception {
+        Path log = folder.resolve("events.xml");
+        Files.write(log, "<log><event/>".getBytes(StandardCharsets.UTF_8));
+        PushParser parser = new PushParser(RootHandler.instance("log", l -> l.then("event")));
+        CompletableFuture<Long> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new FileFollower(log).delays(Duration.ofMillis(1), Duration.ofMillis(5)).follow(parser);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(30);
+        assertFalse(follower.isDone());
+        parser.cancel();
+        assertEquals(13L, (long) follower.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldFlushBatchByTimeWhileFileIsQuiet() throws Exception {
+        Path log = folder.resolve("events.xml");
+        Files.write(log, "<log><event id='1'/><event id='2'/>".getBytes(StandardCharsets.UTF_8));
+        List<String> events = new CopyOnWriteArrayList<>();
+        PushParser parser = new PushParser(RootHandler.instance("log", l -> l
+                .then("event").withAttributes("id").closeBatch(100, Duration.ofMillis(20),
+                        batch -> batch.forEach(e -> events.add(e.getProperty("@id"))))));
+        CompletableFuture<Long> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new FileFollower(log).delays(Duration.ofMillis(1), Duration.ofMillis(5)).follow(parser);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waitFor(events, 2);
+        assertEquals("[1, 2]", events.toString());
+        parser.cancel();
+        follower.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void waitFor(List<String> events, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (events.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, events.size());
+    }
+}
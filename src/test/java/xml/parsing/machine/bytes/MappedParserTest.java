@@ -0,0 +1,245 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xml.parsing.machine.api.CharView;
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.RootHandler;
+
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedParserTest {
+    @TempDir
+    Path folder;
+
+    private static MappedParser parser(String xml) {
+        return new MappedParser(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Cut the document into windows of 8 bytes, so every kind of token crosses a window boundary.
+     */
+    private static MappedParser windowed(String xml) {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer[] windows = new ByteBuffer[(bytes.length + 7) / 8];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = ByteBuffer.wrap(bytes, i * 8, Math.min(8, bytes.length - i * 8)).slice();
+        }
+        return new MappedParser(windows, 3);
+    }
+
+    static final String LIBRARY = "﻿<?xml version='1.0' encoding='UTF-8'?>\r\n"
+            + "<!DOCTYPE library [<!ELEMENT library ANY>]>\n"
+            + "<!-- <book>not a book</book> -->\n"
+            + "<lib:library xmlns:lib='urn:lib'>"
+            + "<book lang='en' lib:id='1' note='a &amp; b&#x21;'><title>Fight &lt;Club&gt;</title>"
+            + "<author>Chuck Pa&#108;ahniuk</author><cover/><?render fast?></book>"
+            + "<disc><book><title>not a book</title></book><title>not a book</title></disc>"
+            + "<book lang=\"pl\"><title><![CDATA[<Zażółć> & gęślą]]></title><author>Stanisław\r\nLem</author></book>"
+            + "</lib:library>\n";
+
+    private static List<String> readLibrary(MappedParser parser) {
+        List<String> fields = new ArrayList<>();
+        parser.read(RootHandler.instance("library", r -> r.then("book").withAttributes()
+                .or("title", Handler::propagate)
+                .or("author", Handler::propagate)
+                .close(h -> fields.add(h.getProperty("@lang") + "|" + h.getProperty("@id") + "|"
+                        + h.getProperty("@note") + "|" + h.getProperty("title") + "|" + h.getProperty("author")))));
+        return fields;
+    }
+
+    @Test
+    public void shouldParseBuffer() {
+        List<String> fields = readLibrary(parser(LIBRARY));
+        assertEquals(2, fields.size());
+        assertEquals("en|1|a & b!|Fight <Club>|Chuck Palahniuk", fields.get(0));
+        assertEquals("pl|null|null|<Zażółć> & gęślą|Stanisław\nLem", fields.get(1));
+    }
+
+    @Test
+    public void shouldParseTokensAcrossWindows() {
+        assertEquals(readLibrary(parser(LIBRARY)), readLibrary(windowed(LIBRARY)));
+    }
+
+    @Test
+    public void shouldMapFile() throws IOException {
+        Path file = folder.resolve("library.xml");
+        Files.write(file, LIBRARY.getBytes(StandardCharsets.UTF_8));
+        assertEquals(readLibrary(parser(LIBRARY)), readLibrary(new MappedParser(file)));
+    }
+
+    @Test
+    public void shouldPassDecodedTextAsCharSequence() {
+        List<String> texts = new ArrayList<>();
+        parser("<a><b>x &amp; y</b><b>gęś</b><b>x &amp; y</b></a>").read(RootHandler.instance("a", r -> r
+                .then("b").chars(t -> texts.add(((CharView) t).contentEquals("x & y") + ":" + t))));
+        assertEquals("[true:x & y, false:gęś, true:x & y]", texts.toString());
+    }
+
+    @Test
+    public void shouldNotSkipElementsWithDescendants() {
+        List<String> prices = new ArrayList<>();
+        parser("<catalog><skip><x>1</x></skip><a><b><price>2</price></b></a><price>3</price></catalog>")
+                .read(RootHandler.instance("catalog", c -> c.descendant("price").text(prices::add)));
+        assertEquals("[2, 3]", prices.toString());
+    }
+
+    @Test
+    public void shouldResolveNamespaces() {
+        List<String> values = new ArrayList<>();
+        RootHandler root = RootHandler.instance();
+        root.then(new QName("urn:soap", "Envelope")).then(new QName("urn:soap", "Body"))
+                .or(new QName("urn:a", "item"), i -> i.withAttributes("id")
+                        .attributes(a -> values.add("id:" + a.get("urn:b", "id") + "/" + a.get(null, "id")))
+                        .text(t -> values.add("a:" + t)))
+                .or("item", i -> i.text(t -> values.add("any:" + t)));
+        parser("<e:Envelope xmlns:e='urn:soap'><e:Body>"
+                + "<m:item xmlns:m='urn:a' xmlns:n='urn:b' n:id='1' id='2'>a</m:item><n:item xmlns:n='urn:b'>b</n:item>"
+                + "<item>c</item><item xmlns='urn:a'>d</item></e:Body><item>e</item></e:Envelope>").read(root);
+        assertEquals("[id:1/2, a:a, any:b, any:c, id:null/null, a:d]", values.toString());
+    }
+
+    @Test
+    public void shouldResumeFromCheckpoint() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0'?><feed xmlns='urn:f' name='f1'><part>");
+        for (int i = 0; i < 10; i++) {
+            xml.append("<entry id='").append(i).append("'><v>").append(i * i).append("</v></entry>");
+        }
+        xml.append("</part></feed>");
+        Path file = folder.resolve("feed.xml");
+        Path checkpoints = folder.resolve("feed.checkpoint");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        List<String> out = new ArrayList<>();
+        AtomicBoolean crash = new AtomicBoolean(true);
+        RootHandler root = RootHandler.instance();
+        root.then(new QName("urn:f", "feed")).withAttributes("name")
+                .close(feed -> out.add("end:" + feed.getProperty("@name") + ":" + feed.getProperty("part/entry/v")))
+                .then("part").then(new QName("urn:f", "entry")).withAttributes("id")
+                .close(entry -> {
+                    if ("7".equals(entry.getProperty("@id")) && crash.getAndSet(false)) {
+                        throw new IllegalStateException("crash");
+                    }
+                    out.add(entry.getProperty("@id") + "=" + entry.getProperty("v"));
+                })
+                .then("v").propagate();
+        Plan plan = root.compile();
+        MappedParser parser = new MappedParser(file).checkpoints(checkpoints, "entry", 3);
+        assertThrows(IllegalStateException.class, () -> parser.read(plan));
+        assertEquals("[0=0, 1=1, 2=4, 3=9, 4=16, 5=25, 6=36]", out.toString());
+
+        Checkpoint checkpoint = Checkpoint.load(checkpoints);
+        assertEquals(xml.indexOf("<entry id='6'>"), checkpoint.position());
+        assertEquals(2, checkpoint.state().depth());
+        out.subList(6, out.size()).clear();
+        Path other = folder.resolve("other.xml");
+        Files.write(other, xml.toString().replace("name='f1'", "name='f2'").getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> new MappedParser(other).resume(plan, checkpoint));
+        new MappedParser(file).resume(plan, checkpoint);
+        assertEquals("[0=0, 1=1, 2=4, 3=9, 4=16, 5=25, 6=36, 7=49, 8=64, 9=81, end:f1:81]", out.toString());
+    }
+
+    @Test
+    public void shouldCoalesceTextAndCdata() {
+        List<String> texts = new ArrayList<>();
+        parser("<a><b>x<![CDATA[<y>]]>z</b><b><c/>w</b></a>").withCoalescing(true).read(RootHandler.instance("a", r -> r
+                .then("b").chars(t -> texts.add(t.toString()))));
+        assertEquals("[x<y>z, w]", texts.toString());
+    }
+
+    @Test
+    public void shouldReadProjectedAttributes() {
+        List<String> fields = new ArrayList<>();
+        parser("<a xmlns:x='urn:x'><b xmlns='urn:y' x:id='1' note='p &amp; q' skip='&#x41;'/><b/></a>")
+                .read(RootHandler.instance("a", r -> r.then("b")
+                        .withAttributes("id", "note", "xmlns")
+                        .attributes(a -> fields.add(a.size() + ":" + (a.size() > 0 ? a.name(0) : "-")))
+                        .close(h -> fields.add(h.getProperty("@id") + "|" + h.getProperty("@note") + "|"
+                                + h.getProperty("@xmlns")))));
+        assertEquals("[3:id, 1|p & q|null, 0:-, null|null|null]", fields.toString());
+    }
+
+    @Test
+    public void shouldMatchPrefixedAndNonAsciiNames() {
+        List<String> texts = new ArrayList<>();
+        parser("<x:a xmlns:x='urn:x'><x:книга>1</x:книга><книги>2</книги><книга>3</книга></x:a>")
+                .read(RootHandler.instance("a", r -> r.then("книга").text(texts::add)));
+        assertEquals("[1, 3]", texts.toString());
+    }
+
+    @Test
+    public void shouldProcessEmptyElements() {
+        List<String> texts = new ArrayList<>();
+        parser("<a><b/><c>x</c><b></b></a>").read(RootHandler.instance("a", r -> r
+                .or("b", b -> b.open(h -> texts.add("b")))
+                .or("c", c -> c.text(texts::add))));
+        assertEquals("[b, x, b]", texts.toString());
+    }
+
+    @Test
+    public void shouldPassTextOfNestedNodes() {
+        List<String> texts = new ArrayList<>();
+        windowed("<title>Fight <b>Club</b><i/>!</title>").read(RootHandler.instance("title", h -> h.text(texts::add)));
+        assertEquals("Fight Club!", String.join("", texts));
+    }
+
+    @Test
+    public void shouldRejectMismatchedTags() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> parser("<a><b></a></b>")
+                .read(RootHandler.instance("a", r -> r.then("b").text(t -> {}))));
+        assertTrue(e.getCause().getMessage().startsWith("End tag does not match start tag"));
+        // names of the same hash and length
+        e = assertThrows(RuntimeException.class, () -> parser("<a><Aa></BB></a>")
+                .read(RootHandler.instance("a", r -> r.then("Aa").text(t -> {}))));
+        assertTrue(e.getCause().getMessage().startsWith("End tag does not match start tag"));
+    }
+
+    @Test
+    public void shouldRejectMalformedCharacterReferences() {
+        for (String reference : new String[] {"&#;", "&#x;", "&#0;", "&#x0;", "&#1x;"}) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> parser("<a>" + reference + "</a>")
+                    .read(RootHandler.instance("a", r -> r.text(t -> {}))));
+            assertTrue(e.getCause().getMessage().contains("character"), reference);
+        }
+    }
+
+    @Test
+    public void shouldRejectTruncatedDocument() {
+        assertThrows(RuntimeException.class, () -> parser("<a><b>text</b>")
+                .read(RootHandler.instance("a", r -> r.then("b").text(t -> {}))));
+    }
+
+    @Test
+    public void shouldRejectUnsupportedEncoding() {
+        assertThrows(RuntimeException.class, () -> parser("<?xml version='1.0' encoding='UTF-16'?><a/>")
+                .read(RootHandler.instance("a", r -> {})));
+    }
+}
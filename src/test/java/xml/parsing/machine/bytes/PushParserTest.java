@@ -0,0 +1,141 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.bytes;
+
+import org.junit.jupiter.api.Test;
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.RootHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PushParserTest {
+    private static Plan library(List<String> fields) {
+        return RootHandler.instance("library", r -> r.then("book").withAttributes()
+                .or("title", Handler::propagate)
+                .or("author", Handler::propagate)
+                .close(h -> fields.add(h.getProperty("@lang") + "|" + h.getProperty("@note") + "|"
+                        + h.getProperty("title") + "|" + h.getProperty("author")))).compile();
+    }
+
+    private static List<String> feed(String xml, int chunkSize) {
+        List<String> fields = new ArrayList<>();
+        PushParser parser = new PushParser(library(fields));
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            parser.feed(bytes, i, Math.min(chunkSize, bytes.length - i));
+        }
+        parser.finish();
+        assertTrue(parser.isComplete());
+        return fields;
+    }
+
+    @Test
+    public void shouldParseDocumentFedByteByByte() {
+        List<String> expected = new ArrayList<>();
+        new MappedParser(ByteBuffer.wrap(MappedParserTest.LIBRARY.getBytes(StandardCharsets.UTF_8)))
+                .read(library(expected));
+        assertEquals(2, expected.size());
+        assertEquals(expected, feed(MappedParserTest.LIBRARY, 1));
+        assertEquals(expected, feed(MappedParserTest.LIBRARY, 7));
+        assertEquals(expected, feed(MappedParserTest.LIBRARY, 1 << 16));
+    }
+
+    @Test
+    public void shouldRunHandlersAsBytesArrive() {
+        List<String> fields = new ArrayList<>();
+        PushParser parser = new PushParser(library(fields));
+        parser.feed(ByteBuffer.wrap("<library><book lang='en'><title>a</title></book><book><ti"
+                .getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, fields.size());
+        assertEquals("en|null|a|null", fields.get(0));
+        parser.feed(ByteBuffer.wrap("tle>b</title></book></library>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, fields.size());
+        assertTrue(parser.isComplete());
+        parser.finish();
+    }
+
+    @Test
+    public void shouldSkipAcrossChunks() {
+        StringBuilder xml = new StringBuilder("<library>");
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            xml.append("<disc id='").append(i).append("'><book><title>no</title></book><![CDATA[</disc>]]>")
+                    .append("<!-- </disc> --><x a='/>'/></disc><book><title>").append(i).append("</title></book>");
+        }
+        xml.append("</library>");
+        List<String> fields = new ArrayList<>();
+        PushParser parser = new PushParser(library(fields));
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; ) {
+            int size = Math.min(1 + random.nextInt(20), bytes.length - i);
+            parser.feed(bytes, i, size);
+            i += size;
+        }
+        parser.finish();
+        assertEquals(100, fields.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("null|null|" + i + "|null", fields.get(i));
+        }
+    }
+
+    @Test
+    public void shouldFlushBatchByTimeWhenNoInputArrives() throws InterruptedException {
+        List<Integer> sizes = new ArrayList<>();
+        PushParser parser = new PushParser(RootHandler.instance("library", r -> r
+                .then("book").closeBatch(100, Duration.ofMillis(200), b -> sizes.add(b.size()))));
+        parser.feed(ByteBuffer.wrap("<library><book/><book/>".getBytes(StandardCharsets.UTF_8)));
+        parser.feed(ByteBuffer.allocate(0));
+        assertTrue(sizes.isEmpty());
+        Thread.sleep(250);
+        parser.feed(ByteBuffer.allocate(0));
+        assertEquals("[2]", sizes.toString());
+        parser.feed(ByteBuffer.wrap("<book/></library>".getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+        assertEquals("[2, 1]", sizes.toString());
+    }
+
+    @Test
+    public void shouldIgnoreInputAfterStop() {
+        List<String> titles = new ArrayList<>();
+        PushParser parser = new PushParser(RootHandler.instance("library", r -> r.then("book").stopAfter(1)
+                .then("title").text(titles::add)));
+        parser.feed(ByteBuffer.wrap("<library><book><title>a</title></book><book><title>b</title>"
+                .getBytes(StandardCharsets.UTF_8)));
+        assertTrue(parser.isComplete());
+        parser.feed(ByteBuffer.wrap("</book></library>".getBytes(StandardCharsets.UTF_8)));
+        parser.finish();
+        assertEquals("[a]", titles.toString());
+    }
+
+    @Test
+    public void shouldRejectIncompleteDocument() {
+        PushParser parser = new PushParser(library(new ArrayList<>()));
+        parser.feed(ByteBuffer.wrap("<library><book>".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(parser.isComplete());
+        assertThrows(RuntimeException.class, parser::finish);
+    }
+}
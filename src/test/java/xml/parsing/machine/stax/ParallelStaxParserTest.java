@@ -0,0 +1,148 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.stax;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.RootHandler;
+
+import javax.xml.stream.XMLInputFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelStaxParserTest {
+    XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
+
+    @TempDir
+    Path folder;
+
+    private final Plan plan = RootHandler.instance("library", r -> r
+            .or("name", Handler::propagate)
+            .then("book").withAttributes()
+            .or("title", Handler::propagate)
+    ).compile();
+
+    private Path library(int books) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<!-- library -->\n"
+                + "<lib:library xmlns:lib='urn:library' owner='A &amp; B'>\n<lib:name>Central</lib:name>\n");
+        for (int i = 0; i < books; i++) {
+            xml.append("  <book id='").append(i).append("'><title>Title é ").append(i).append("</title></book>\n");
+            if (i % 7 == 0) {
+                xml.append("  <booklet><title>not a book</title></booklet>\n");
+            }
+        }
+        xml.append("</lib:library>\n");
+        Path file = folder.resolve("library.xml");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String map(Handler book) {
+        return book.getProperty("@id") + ":" + book.getProperty("title");
+    }
+
+    @Test
+    public void shouldKeepDocumentOrder() throws IOException {
+        Path file = library(2000);
+        List<String> records = new ParallelStaxParser(xmlFactory, new ForkJoinPool(4))
+                .withChunkSize(1024)
+                .read(file, plan, "book", ParallelStaxParserTest::map);
+        assertEquals(2000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + ":Title é " + i, records.get(i));
+        }
+    }
+
+    @Test
+    public void shouldDeliverAllRecordsToSink() throws IOException {
+        Path file = library(2000);
+        List<String> records = new ArrayList<>();
+        new ParallelStaxParser(xmlFactory)
+                .withChunkSize(4096)
+                .read(file, plan, "book", ParallelStaxParserTest::map, records::add);
+        List<String> expected = new ArrayList<>();
+        new ParallelStaxParser(xmlFactory)
+                .read(file, plan, "book", ParallelStaxParserTest::map, expected::add);
+        Collections.sort(records);
+        Collections.sort(expected);
+        assertEquals(2000, expected.size());
+        assertEquals(expected, records);
+    }
+
+    @Test
+    public void shouldParseFileWithoutRecords() throws IOException {
+        Path file = library(0);
+        assertTrue(new ParallelStaxParser(xmlFactory).withChunkSize(16)
+                .read(file, plan, "book", ParallelStaxParserTest::map).isEmpty());
+    }
+
+    @Test
+    public void shouldRejectUnknownRecord() throws IOException {
+        Path file = library(10);
+        assertThrows(IllegalArgumentException.class,
+                () -> new ParallelStaxParser(xmlFactory).read(file, plan, "disc", ParallelStaxParserTest::map));
+    }
+
+    @Test
+    public void shouldReadPrefixedRecords() throws IOException {
+        StringBuilder xml = new StringBuilder("<lib:library xmlns:lib='urn:library'>\n");
+        for (int i = 0; i < 500; i++) {
+            xml.append("  <lib:book id='").append(i).append("'><lib:title>Title é ").append(i)
+                    .append("</lib:title></lib:book>\n");
+        }
+        xml.append("</lib:library>\n");
+        Path file = folder.resolve("prefixed.xml");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        List<String> records = new ParallelStaxParser(xmlFactory, new ForkJoinPool(4))
+                .withChunkSize(1024)
+                .read(file, plan, "lib:book", ParallelStaxParserTest::map);
+        assertEquals(500, records.size());
+        assertEquals("499:Title é 499", records.get(499));
+    }
+
+    @Test
+    public void shouldStopAllChunksWhenOneFails() throws Exception {
+        Path file = library(2000);
+        AtomicInteger mapped = new AtomicInteger();
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> new ParallelStaxParser(xmlFactory,
+                new ForkJoinPool(2)).withChunkSize(1024).read(file, plan, "book", book -> {
+                    if ("5".equals(book.getProperty("@id"))) {
+                        throw new IllegalStateException("bad record");
+                    }
+                    return mapped.incrementAndGet();
+                }));
+        assertTrue(e.getMessage().contains("bad record"), e.getMessage());
+        int count = mapped.get();
+        assertTrue(count < 1999, "remaining chunks are cancelled");
+        Thread.sleep(50);
+        assertEquals(count, mapped.get(), "no chunk is parsed after read returns");
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package xml.parsing.machine.stax;
+
+import org.junit.jupiter.api.Test;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.RootHandler;
+
+import javax.xml.stream.XMLStreamException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaxParserPoolTest {
+    private static byte[] order(int id) {
+        return ("<order id='" + id + "'><item><price>" + id + "</price></item><item><price>1</price></item></order>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldResetStateBetweenDocuments() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        Plan plan = RootHandler.instance("order", o -> o.withAttributes("id")
+                .close(order -> values.add(order.getProperty("@id") + ":" + order.getProperty("price")))
+                .descendant("price").stopAfter(3).propagate()).compile();
+        StaxParserPool pool = new StaxParserPool(1);
+        for (int i = 0; i < 3; i++) {
+            pool.parse(order(i), plan);
+        }
+        assertEquals(1, pool.idle());
+        assertEquals("[0:1, 1:1, 2:1]", values.toString());
+    }
+
+    @Test
+    public void shouldParseBuffersAndReportRecords() throws XMLStreamException {
+        Plan plan = RootHandler.instance("order", o -> o.then("item").then("price").propagate()).compile();
+        List<String> prices = new ArrayList<>();
+        StaxParserPool pool = new StaxParserPool(2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(100);
+        direct.put(order(5)).flip();
+        pool.parse(direct, plan, "item", item -> prices.add(item.getProperty("price")));
+        pool.parse(ByteBuffer.wrap(order(7)), plan, "item", item -> prices.add(item.getProperty("price")));
+        assertEquals("[5, 1, 7, 1]", prices.toString());
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void shouldShareParsersBetweenThreads() throws Exception {
+        Plan plan = RootHandler.instance("order", o -> o.withAttributes("id")).compile();
+        StaxParserPool pool = new StaxParserPool(4);
+        Queue<String> ids = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        int id = thread * 1000 + i;
+                        pool.parse(order(id), plan, "order", order -> {
+                            if (!String.valueOf(id).equals(order.getProperty("@id"))) {
+                                ids.add("mismatch " + id);
+                            }
+                        });
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(ids.isEmpty(), ids::toString);
+        assertTrue(pool.idle() <= 4);
+    }
+}
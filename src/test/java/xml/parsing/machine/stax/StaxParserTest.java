@@ -20,14 +20,28 @@ package xml.parsing.machine.stax;
 
 import org.junit.jupiter.api.Test;
 import xml.parsing.machine.api.Handler;
+import xml.parsing.machine.api.MalformedTextPolicy;
+import xml.parsing.machine.api.Plan;
+import xml.parsing.machine.api.Property;
 import xml.parsing.machine.api.RootHandler;
 
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 
 import java.io.StringReader;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -68,6 +82,333 @@ class StaxParserTest {
         assertTrue(books.contains("text1"));
     }
 
+    @Test
+    public void shouldSkipNestedNodes() throws XMLStreamException {
+        List<String> books = new ArrayList<>();
+        try (StringReader reader = new StringReader(
+                "<library><disc><book>text0</book><disc><book>text1</book></disc></disc><book>text2</book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", h -> h.then("book").text(books::add)));
+        }
+        assertEquals(1, books.size());
+        assertEquals("text2", books.get(0));
+    }
+
+    @Test
+    public void shouldPassTextAsCharSequence() throws XMLStreamException {
+        List<String> years = new ArrayList<>();
+        AtomicInteger matches = new AtomicInteger();
+        try (StringReader reader = new StringReader(
+                "<library><book><year>2001</year></book><book><year>1999</year></book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", h -> h.then("book").then("year").chars(year -> {
+                if (year.length() == 4 && year.charAt(0) == '2') {
+                    matches.incrementAndGet();
+                }
+                years.add(year.toString());
+            })));
+        }
+        assertEquals("[2001, 1999]", years.toString());
+        assertEquals(1, matches.get());
+    }
+
+    @Test
+    public void shouldCoalesceTextFragments() throws XMLStreamException {
+        String xml = "<library><book>a &amp; <![CDATA[<b>]]><!-- c -->d</book><book>e</book></library>";
+        List<String> fragments = new ArrayList<>();
+        try (StringReader reader = new StringReader(xml)) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader))
+                    .read(RootHandler.instance("library", h -> h.then("book").text(fragments::add)));
+        }
+        assertEquals("a & <b>de", String.join("", fragments));
+        List<String> books = new ArrayList<>();
+        try (StringReader reader = new StringReader(xml)) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).withCoalescing(true)
+                    .read(RootHandler.instance("library", h -> h.then("book").text(books::add)));
+        }
+        assertEquals("[a & <b>d, e]", books.toString());
+    }
+
+    @Test
+    public void shouldParseTypedText() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        try (StringReader reader = new StringReader("<book><id>12</id><price>9.99</price><sold>true</sold>"
+                + "<stock>1</stock><stock>many</stock><date>2020-01-02</date></book>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).withCoalescing(true)
+                    .read(RootHandler.instance("book", h -> h
+                            .or("id", x -> x.longText(v -> values.add("id=" + v)))
+                            .or("price", x -> x.doubleText(v -> values.add("price=" + v)))
+                            .or("sold", x -> x.booleanText(v -> values.add("sold=" + v)))
+                            .or("stock", x -> x.malformed(MalformedTextPolicy.SKIP)
+                                    .intText(v -> values.add("stock=" + v)))
+                            .or("date", x -> x.timestampText(v -> values.add("date=" + v)))));
+        }
+        assertEquals("[id=12, price=9.99, sold=true, stock=1, date=1577923200000]", values.toString());
+    }
+
+    @Test
+    public void shouldParseSplitTypedText() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        try (StringReader reader = new StringReader("<book><id>1<![CDATA[2]]>3</id><price> 9&#46;5 </price>"
+                + "<sold>t<![CDATA[ru]]>e</sold><stock>1&#48;0</stock><empty/></book>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader))
+                    .read(RootHandler.instance("book", h -> h
+                            .or("id", x -> x.longText(v -> values.add("id=" + v)))
+                            .or("price", x -> x.doubleText(v -> values.add("price=" + v)))
+                            .or("sold", x -> x.booleanText(v -> values.add("sold=" + v)))
+                            .or("stock", x -> x.intText(v -> values.add("stock=" + v)))
+                            .or("empty", x -> x.intText(v -> values.add("empty=" + v)))));
+        }
+        assertEquals("[id=123, price=9.5, sold=true, stock=100]", values.toString());
+    }
+
+    @Test
+    public void shouldRejectMalformedTypedText() throws XMLStreamException {
+        try (StringReader reader = new StringReader("<book><id>x</id></book>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            RootHandler root = RootHandler.instance("book", h -> h.then("id").intText(v -> {}));
+            assertThrows(IllegalArgumentException.class, () -> parser.read(root));
+        }
+    }
+
+    @Test
+    public void shouldStopAfterGivenNumberOfRecords() throws XMLStreamException {
+        List<String> books = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        try (StringReader reader = new StringReader(
+                "<library><book>1</book><book>2</book><book>3</book><book>4</book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", h -> h
+                    .close(library -> events.add("library"))
+                    .then("book").stopAfter(2).text(books::add).close(book -> events.add("book"))));
+            assertTrue(parser.control().isStopped());
+        }
+        assertEquals("[1, 2]", books.toString());
+        assertEquals("[book, book]", events.toString());
+    }
+
+    @Test
+    public void shouldStopFromCallback() throws XMLStreamException {
+        List<String> ids = new ArrayList<>();
+        Plan plan = RootHandler.instance("library", h -> h.then("book").withAttributes("id").close(book -> {
+            ids.add(book.getProperty("@id"));
+            if ("b".equals(book.getProperty("@id"))) {
+                book.control().stop();
+            }
+        })).compile();
+        for (int i = 0; i < 2; i++) {
+            try (StringReader reader = new StringReader(
+                    "<library><book id='a'/><book id='b'/><book id='c'/></library>")) {
+                new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(plan);
+            }
+        }
+        assertEquals("[a, b, a, b]", ids.toString());
+    }
+
+    @Test
+    public void shouldMatchQualifiedNames() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        try (StringReader reader = new StringReader("<e:Envelope xmlns:e='urn:soap'><e:Body>"
+                + "<m:item xmlns:m='urn:a' xmlns:n='urn:b' n:id='1' id='2'>a</m:item><n:item xmlns:n='urn:b'>b</n:item>"
+                + "<item>c</item><item xmlns='urn:a'>d</item></e:Body><item>e</item></e:Envelope>")) {
+            RootHandler root = RootHandler.instance();
+            root.then(new QName("urn:soap", "Envelope")).then(new QName("urn:soap", "Body"))
+                    .or(new QName("urn:a", "item"), i -> i
+                            .attributes(a -> values.add("id:" + a.get("urn:b", "id") + "/" + a.get(null, "id")))
+                            .text(t -> values.add("a:" + t)))
+                    .or(new QName("", "item"), i -> i.text(t -> values.add("none:" + t)));
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(root);
+        }
+        assertEquals("[id:1/2, a:a, none:c, id:null/null, a:d]", values.toString());
+    }
+
+    @Test
+    public void shouldRefuseNamespacesWhenReaderIsNotNamespaceAware() throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        RootHandler root = RootHandler.instance();
+        root.then(new QName("urn:a", "library")).then("book");
+        try (StringReader reader = new StringReader("<library xmlns='urn:a'><book/></library>")) {
+            StaxParser parser = new StaxParser(factory.createXMLStreamReader(reader));
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> parser.read(root));
+            assertTrue(e.getMessage().contains("does not resolve namespaces"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldMatchDescendantsAtAnyDepth() throws XMLStreamException {
+        List<String> prices = new ArrayList<>();
+        List<String> titles = new ArrayList<>();
+        try (StringReader reader = new StringReader("<catalog><price>1</price>"
+                + "<book><title>a</title><offer><price>2</price></offer></book>"
+                + "<shelf><box><price>3<price>inner</price></price></box></shelf></catalog>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("catalog", c -> c
+                    .or("book", b -> b.then("title").text(titles::add))
+                    .descendant("price").text(prices::add)));
+        }
+        assertEquals("[a]", titles.toString());
+        assertEquals("[1, 2, 3, inner]", prices.toString());
+    }
+
+    @Test
+    public void shouldPropagateDescendantsToOwner() throws XMLStreamException {
+        List<String> books = new ArrayList<>();
+        try (StringReader reader = new StringReader("<library>"
+                + "<book><meta><info><isbn>1</isbn></info></meta></book><book><isbn>2</isbn></book></library>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("library", l -> l
+                    .then("book").close(b -> books.add(b.getProperty("isbn")))
+                    .or("meta", m -> m.then("info"))
+                    .descendant("isbn").propagate()));
+        }
+        assertEquals("[1, 2]", books.toString());
+    }
+
+    @Test
+    public void shouldMatchAnyChild() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        try (StringReader reader = new StringReader(
+                "<book><title>a</title><author>b</author><year>c<x>d</x></year></book>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("book", b -> b
+                    .or("title", t -> t.text(v -> values.add("title:" + v)))
+                    .any().text(values::add)));
+        }
+        assertEquals("[title:a, b, c, d]", values.toString());
+    }
+
+    @Test
+    public void shouldDeliverRecordsInBatches() throws XMLStreamException {
+        List<String> batches = new ArrayList<>();
+        try (StringReader reader = new StringReader(
+                "<library><book id='1'/><book id='2'/><book id='3'/><book id='4'/><book id='5'/></library>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("library", h -> h
+                    .then("book").withAttributes("id").closeBatch(2, batch -> {
+                        StringBuilder ids = new StringBuilder();
+                        batch.forEach(book -> ids.append(book.getProperty("@id")));
+                        batches.add(ids.toString());
+                    })));
+        }
+        assertEquals("[12, 34, 5]", batches.toString());
+    }
+
+    @Test
+    public void shouldFlushBatchByTime() throws XMLStreamException {
+        List<Integer> sizes = new ArrayList<>();
+        try (StringReader reader = new StringReader("<library><book/><book/><book/></library>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("library", h -> h
+                    .then("book").close(book -> sleep()).closeBatch(100, Duration.ofNanos(1), b -> sizes.add(b.size()))));
+        }
+        assertEquals("[1, 1, 1]", sizes.toString());
+    }
+
+    @Test
+    public void shouldFlushBatchWhenStopped() throws XMLStreamException {
+        List<Integer> sizes = new ArrayList<>();
+        try (StringReader reader = new StringReader("<library><book/><book/><book/><book/></library>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(RootHandler.instance("library", h -> h
+                    .then("book").stopAfter(3).closeBatch(2, b -> sizes.add(b.size()))));
+        }
+        assertEquals("[2, 1]", sizes.toString());
+    }
+
+    @Test
+    public void shouldCancelFromAnotherThread() throws Exception {
+        StringBuilder xml = new StringBuilder("<library>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<book>").append(i).append("</book>");
+        }
+        xml.append("</library>");
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (StringReader reader = new StringReader(xml.toString())) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", h -> h.then("book").text(t -> {
+                if (count.incrementAndGet() == 10) {
+                    try {
+                        executor.submit(parser::cancel).get();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            })));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(10, count.get());
+    }
+
+    @Test
+    public void shouldCancelBeforeReadingStarts() throws XMLStreamException {
+        List<String> books = new ArrayList<>();
+        Plan plan = RootHandler.instance("library", h -> h.then("book").text(books::add)).compile();
+        try (StringReader reader = new StringReader("<library><book>1</book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.cancel();
+            parser.read(plan);
+            assertTrue(parser.control().isStopped());
+        }
+        assertTrue(books.isEmpty());
+        try (StringReader reader = new StringReader("<library><book>1</book><book>2</book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", h -> h.then("book").stopAfter(1).text(books::add)));
+            parser.reset(xmlFactory.createXMLStreamReader(new StringReader("<library><book>3</book></library>")));
+            parser.read(plan);
+        }
+        assertEquals("[1, 3]", books.toString(), "the stop which has ended a parse does not apply to the next one");
+    }
+
+    @Test
+    public void shouldIterateRecordsLazily() throws XMLStreamException {
+        Plan plan = RootHandler.instance("library", h -> h.then("book").withAttributes("id")
+                .or("title", Handler::propagate)).compile();
+        String xml = "<library><book id='1'><title>A</title></book><disc/><book id='2'><title>B</title></book>"
+                + "<book id='3'><broken></book></library>";
+        try (StringReader reader = new StringReader(xml)) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            Iterator<String> books = parser.iterator(plan, "book",
+                    b -> b.getProperty("@id") + b.getProperty("title"));
+            assertTrue(books.hasNext());
+            assertTrue(books.hasNext());
+            assertEquals("1A", books.next());
+            assertEquals("2B", books.next());
+            assertThrows(RuntimeException.class, books::hasNext);
+        }
+        try (StringReader reader = new StringReader(xml)) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            try (Stream<String> books = parser.stream(plan, "book", b -> b.getProperty("title"))) {
+                assertEquals("[A, B]", books.limit(2).collect(Collectors.toList()).toString());
+            }
+            assertTrue(parser.control().isStopped());
+        }
+    }
+
+    @Test
+    public void shouldStreamAllRecords() throws XMLStreamException {
+        Plan plan = RootHandler.instance("library", h -> h.then("book").then("year").propagate()).compile();
+        StringBuilder xml = new StringBuilder("<library>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<book><year>").append(1900 + i).append("</year></book>");
+        }
+        xml.append("</library>");
+        try (StringReader reader = new StringReader(xml.toString())) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            long count = parser.stream(plan, "book", b -> Integer.parseInt(b.getProperty("year")))
+                    .parallel()
+                    .filter(year -> year >= 1950)
+                    .count();
+            assertEquals(50, count);
+        }
+    }
+
+    @Test
+    public void shouldPassTextOfNestedNodes() throws XMLStreamException {
+        List<String> texts = new ArrayList<>();
+        try (StringReader reader = new StringReader("<title>Fight <b>Club</b></title>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("title", h -> h.text(texts::add)));
+        }
+        assertEquals("Fight Club", String.join("", texts));
+    }
+
     @Test
     public void shouldProcessLongPaths() throws XMLStreamException {
         List<String> books = new ArrayList<>();
@@ -201,6 +542,57 @@ class StaxParserTest {
         assertTrue(fields.contains("@name=book 2"));
     }
 
+    @Test
+    public void shouldReadProjectedAttributes() throws XMLStreamException {
+        List<String> fields = new ArrayList<>();
+        try (StringReader reader = new StringReader("<library>"
+                + "<book id='1' lang='en' year='2001'><meta kind='paper' pages='10'/></book>"
+                + "<book id='2'><meta pages='20'/></book></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", r -> r.then("book")
+                    .withAttributes("id", "lang")
+                    .close(h -> fields.add(h.getProperty("@id") + "|" + h.getProperty("@lang") + "|"
+                            + h.getProperty("@year") + "|" + h.getProperty("meta/@pages")))
+                    .then("meta").withAttributes("pages")));
+        }
+        assertEquals("[1|en|null|10, 2|null|null|20]", fields.toString());
+    }
+
+    @Test
+    public void shouldPassAttributeView() throws XMLStreamException {
+        List<String> fields = new ArrayList<>();
+        try (StringReader reader = new StringReader("<library><book id='1' lang='en'/><book id='2'/></library>")) {
+            StaxParser parser = new StaxParser(xmlFactory.createXMLStreamReader(reader));
+            parser.read(RootHandler.instance("library", r -> r.then("book")
+                    .attributes(a -> fields.add(a.size() + ":" + a.get("lang") + ":" + a.toMap().get("id")))));
+        }
+        assertEquals("[2:en:1, 1:null:2]", fields.toString());
+    }
+
+    @Test
+    public void shouldReadPropertiesByHandle() throws XMLStreamException {
+        Property title = Property.of("meta/title");
+        Property lang = Property.of("meta/@lang");
+        Property isbn = Property.of("meta/@isbn");
+        Property year = Property.of("@year");
+        List<String> fields = new ArrayList<>();
+        Plan plan = RootHandler.instance("library", r -> r.then("book")
+                .withAttributes("year")
+                .close(h -> fields.add(h.getProperty(title) + "|" + h.getProperty(lang) + "|"
+                        + h.getProperty(isbn) + "|" + h.getProperty(year) + "|" + h.getProperty("meta/@lang")))
+                .then("meta").withAttributes().propagate()
+                .or("title", Handler::propagate)).compile();
+        String xml = "<library><book year='2001'><meta lang='en' isbn='1'><title>A</title></meta></book>"
+                + "<book><meta><title>B</title></meta></book></library>";
+        for (int i = 0; i < 2; i++) {
+            try (StringReader reader = new StringReader(xml)) {
+                new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(plan);
+            }
+        }
+        assertEquals("[A|en|1|2001|en, B|null|null|null|null, A|en|1|2001|en, B|null|null|null|null]",
+                fields.toString());
+    }
+
     @Test
     public void shouldCombineAttributesWithPropagatedValues() throws XMLStreamException {
         List<String> fields = new ArrayList<>();
@@ -250,4 +642,164 @@ class StaxParserTest {
         assertTrue(fields.contains("text 1"));
         assertFalse(fields.contains("text 2"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReuseCompiledPlan() throws XMLStreamException {
+        List<String> fields = new ArrayList<>();
+        Plan plan = RootHandler.instance("books", r -> r
+                .then("book").withAttributes()
+                .or("content", Handler::propagate)
+                .close(h -> fields.add(h.getProperty("@language") + ":" + h.getProperty("content")))
+        ).compile();
+        for (String language : new String[] {"ru", "en"}) {
+            try (StringReader reader = new StringReader(
+                    "<books><book language='" + language + "'><content>text</content></book></books>")) {
+                new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(plan);
+            }
+        }
+        assertEquals(2, fields.size());
+        assertEquals("ru:text", fields.get(0));
+        assertEquals("en:text", fields.get(1));
+    }
+
+    @Test
+    public void shouldPassRunTimeCopiesToCallbacks() throws XMLStreamException {
+        List<Handler> copies = new ArrayList<>();
+        List<String> titles = new ArrayList<>();
+        RootHandler root = RootHandler.instance();
+        Handler book = root.then("library").then("book");
+        book.then("title").propagate();
+        // handlers captured while the graph is built are templates, the parsing state is in the callback argument
+        book.close(h -> {
+            copies.add(h);
+            titles.add(h.getProperty("title"));
+        });
+        try (StringReader reader = new StringReader("<library><book><title>Dune</title></book></library>")) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(root);
+        }
+        assertEquals(1, copies.size());
+        assertNotSame(book, copies.get(0));
+        assertEquals("Dune", titles.get(0));
+        assertThrows(IllegalStateException.class, () -> book.getProperty("title"));
+        assertThrows(IllegalStateException.class, () -> book.then("author"));
+    }
+
+    @Test
+    public void shouldShareCompiledPlanBetweenThreads() throws Exception {
+        Map<String, String> mismatches = new ConcurrentHashMap<>();
+        AtomicInteger records = new AtomicInteger();
+        Plan plan = RootHandler.instance("library", r -> r
+                .then("book").withAttributes()
+                .or("title", Handler::propagate)
+                .close(h -> {
+                    records.incrementAndGet();
+                    if (!("title " + h.getProperty("@id")).equals(h.getProperty("title"))) {
+                        mismatches.put(h.getProperty("@id"), String.valueOf(h.getProperty("title")));
+                    }
+                })
+        ).compile();
+        StringBuilder xml = new StringBuilder("<library>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<book id='").append(i).append("'><title>title ").append(i).append("</title></book>");
+        }
+        xml.append("</library>");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    try (StringReader reader = new StringReader(xml.toString())) {
+                        new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(plan);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8000, records.get());
+        assertTrue(mismatches.isEmpty(), mismatches::toString);
+    }
+
+    @Test
+    public void shouldRunTabulatedPlan() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        RootHandler root = RootHandler.instance();
+        Handler body = root.then(new QName("urn:soap", "Envelope")).then(new QName("urn:soap", "Body"));
+        body.or(new QName("urn:a", "item"), i -> i.text(t -> values.add("a:" + t)))
+                .or(new QName("", "item"), i -> i.text(t -> values.add("none:" + t)))
+                .or("shelf", s -> s.any().then("title").text(t -> values.add("title:" + t)))
+                .descendant("price").text(t -> values.add("price:" + t));
+        for (int i = 0; i < 300; i++) {
+            String name = "f" + i;
+            body.then(name).text(t -> values.add(name + ":" + t));
+        }
+        Plan plan = root.compile();
+        Plan tabulated = plan.tabulate();
+        assertNotSame(plan, tabulated);
+        assertSame(tabulated, plan.tabulate());
+        assertSame(tabulated, tabulated.tabulate());
+        String xml = "<e:Envelope xmlns:e='urn:soap'><e:Body><m:item xmlns:m='urn:a'>a</m:item><item>b</item>"
+                + "<item xmlns='urn:b'>skipped</item><f0>0</f0><f299>299</f299><f300>skipped</f300>"
+                + "<shelf><box><title>t</title><price>1</price></box></shelf></e:Body></e:Envelope>";
+        List<String> expected = null;
+        for (Plan p : new Plan[] {plan, tabulated}) {
+            values.clear();
+            try (StringReader reader = new StringReader(xml)) {
+                new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(p);
+            }
+            if (expected == null) {
+                expected = new ArrayList<>(values);
+            }
+            assertEquals(expected, values);
+        }
+        assertEquals("[a:a, none:b, f0:0, f299:299, title:t, price:1]", expected.toString());
+    }
+
+    @Test
+    public void shouldReadDeepDocuments() throws XMLStreamException {
+        List<String> values = new ArrayList<>();
+        RootHandler root = RootHandler.instance();
+        Handler node = root.then("doc");
+        for (int i = 0; i < 100; i++) {
+            node = node.then("n").close(n -> values.add("n"));
+        }
+        node.text(values::add);
+        StringBuilder xml = new StringBuilder("<doc>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<n>");
+        }
+        xml.append("leaf");
+        for (int i = 0; i < 100; i++) {
+            xml.append("</n>");
+        }
+        xml.append("</doc>");
+        try (StringReader reader = new StringReader(xml.toString())) {
+            new StaxParser(xmlFactory.createXMLStreamReader(reader)).read(root.compile().tabulate());
+        }
+        assertEquals(101, values.size());
+        assertEquals("leaf", values.get(0));
+    }
+
+    @Test
+    public void shouldNotTabulateHugeGraph() {
+        RootHandler root = RootHandler.instance();
+        Handler library = root.then("library");
+        for (int i = 0; i < 10000; i++) {
+            library.then("f" + i);
+        }
+        Plan plan = root.compile();
+        assertSame(plan, plan.tabulate());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}